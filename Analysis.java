@@ -0,0 +1,51 @@
+// Searches off the game's thread: the board goes out as a value, the answer comes back on the game's thread
+/* The game state lives on one thread (the FX thread in the window) and is never shared.  analyse() reads the board
+ * there, hands the value to a single background "analysis" thread to search, and posts the answer back through
+ * 'owner' (Platform::runLater in the window).  If the board has moved on by the time the answer arrives, the answer
+ * is thrown away and the search run again on the new board, so 'then' only ever gets a move for the current board.
+ * TwentyFortyEight uses it for hints and auto-play; ConcurrencyCheck drives the same class without JavaFX.
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.LongToIntFunction;
+
+final class Analysis
+{
+	private final ExecutorService thread = Executors.newSingleThreadExecutor(task ->
+	{
+		Thread thread = new Thread(task, "analysis");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Executor owner;			// Runs a task on the game's thread
+	private final LongSupplier board;		// The 4x4 board now (only read on the game's thread)
+	private final LongToIntFunction search;	// Board to move, -1 if none (only run on the analysis thread)
+	int stale = 0;							// Answers thrown away because the board had moved on (game's thread)
+
+	Analysis(Executor owner, LongSupplier board, LongToIntFunction search)
+	{
+		this.owner = owner;
+		this.board = board;
+		this.search = search;
+	}
+
+	void analyse(IntConsumer then)	// Call on the game's thread; 'then' gets the move for the board as it is then, on the same thread
+	{
+		long position = board.getAsLong();
+		CompletableFuture.supplyAsync(() -> search.applyAsInt(position), thread)
+				.thenAccept(dir -> owner.execute(() ->
+				{
+					if (board.getAsLong() == position) then.accept(dir);
+					else
+					{
+						stale++;
+						analyse(then);
+					}
+				}));
+	}
+}
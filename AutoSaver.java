@@ -0,0 +1,278 @@
+// Crash-safe autosave: an append-only journal of every move plus a periodic snapshot, all written off the FX thread
+/* autosave.journal gets one record per move or undo (30 bytes on a 4x4 board):
+ *   long sequence   byte type (MOVE/UNDO)   board   int score   int moves   byte xplay   int CRC32 of the record
+ * The board is GridEngine.words(size) longs; the size comes from the snapshot, which is always written first.
+ * Each record holds the position *after* the action, so recovery is: load the snapshot, then for every later record
+ * push the current position on the undo log (MOVE) or pop it (UNDO) and take the record's position.
+ *
+ * Every COMPACT_EVERY records the game's full state is written to autosave.dat (the sequence number of the last
+ * record it covers, then a SaveFormat save) through a temp file and an atomic rename, and the journal starts over.
+ * Records up to that sequence number are ignored on recovery, so a crash between the rename and the journal reset
+ * is harmless, and a torn record at the end of the journal fails its CRC and is dropped.
+ *
+ * A single writer thread does all the disk work: it drains whatever is queued, writes it, and forces the journal to
+ * disk once per batch, so the game never waits on the disk.  Other files (2048.dat, HighScore.dat) can be written
+ * atomically on the same thread with writeAtomically().
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+public class AutoSaver
+{
+	static final Path SNAPSHOT = Paths.get("autosave.dat");
+	static final Path JOURNAL = Paths.get("autosave.journal");
+	static final int RECORD_SIZE = 22;		// Plus 8 bytes per board word
+	static final byte MOVE = 1, UNDO = 2;
+	static final int COMPACT_EVERY = 256;	// Records between snapshots
+
+	private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+	private final Supplier<SaveFormat.SavedGame> snapshotSource;	// Called on the game's thread when it is time to compact
+	private final Thread writer;
+	private FileChannel journal;			// Only touched by the writer thread
+	private long sequence = 0;				// Last sequence number handed out
+	private int sinceSnapshot = 0;
+	private volatile boolean closed = false;
+
+	AutoSaver(Supplier<SaveFormat.SavedGame> snapshotSource, long lastSequence)
+	{
+		this.snapshotSource = snapshotSource;
+		this.sequence = lastSequence;
+		writer = new Thread(this::run, "autosave-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	void recordMove(long[] board, int score, int moves, int xplay)
+	{
+		record(MOVE, board, score, moves, xplay);
+	}
+
+	void recordUndo(long[] board, int score, int moves, int xplay)
+	{
+		record(UNDO, board, score, moves, xplay);
+	}
+
+	void snapshot()			// Writes the full state now (after a load, or any change the journal cannot describe)
+	{
+		SaveFormat.SavedGame game = snapshotSource.get();
+		long covered = sequence;
+		sinceSnapshot = 0;
+		queue.add(() -> writeSnapshot(covered, game));
+	}
+
+	void discard()			// The game is over: nothing to resume next time
+	{
+		sinceSnapshot = 0;
+		queue.add(() ->
+		{
+			try
+			{
+				closeJournal();
+				Files.deleteIfExists(JOURNAL);
+				Files.deleteIfExists(SNAPSHOT);
+			}
+			catch (IOException e)
+				{ e.printStackTrace(); }
+		});
+	}
+
+	void writeAtomically(Path file, byte[] data)	// Queues a whole-file write (temp file + rename) on the writer thread
+	{
+		queue.add(() ->
+		{
+			try
+			{
+				replace(file, data);
+			}
+			catch (IOException e)
+				{ e.printStackTrace(); }
+		});
+	}
+
+	void close()			// Finishes everything queued so far, then stops the writer
+	{
+		closed = true;
+		queue.add(() -> {});
+		try
+		{
+			writer.join(2000);
+		}
+		catch (InterruptedException e)
+			{ Thread.currentThread().interrupt(); }
+	}
+
+	private void record(byte type, long[] board, int score, int moves, int xplay)
+	{
+		int size = RECORD_SIZE + 8 * board.length;
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.putLong(++sequence).put(type);
+		for (long word : board) buf.putLong(word);
+		buf.putInt(score).putInt(moves).put((byte) xplay);
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, size - 4);
+		buf.putInt((int) crc.getValue());
+		buf.flip();
+		queue.add(() -> append(buf));
+		if (++sinceSnapshot >= COMPACT_EVERY) snapshot();
+	}
+
+	private void run()		// Writer thread: run queued work in batches, one fsync of the journal per batch
+	{
+		List<Runnable> batch = new ArrayList<>();
+		while (true)
+		{
+			try
+			{
+				batch.add(queue.take());
+			}
+			catch (InterruptedException e)
+				{ return; }
+			queue.drainTo(batch);
+			long start = Instrumentation.begin();
+			for (Runnable work : batch)
+			{
+				work.run();
+			}
+			batch.clear();
+			try
+			{
+				if (journal != null) journal.force(false);
+			}
+			catch (IOException e)
+				{ e.printStackTrace(); }
+			Instrumentation.end(Instrumentation.Probe.FILE_IO, start);
+			if (closed && queue.isEmpty())
+			{
+				closeJournal();
+				return;
+			}
+		}
+	}
+
+	private void append(ByteBuffer record)
+	{
+		try
+		{
+			if (journal == null)
+				journal = FileChannel.open(JOURNAL, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			while (record.hasRemaining()) journal.write(record);
+		}
+		catch (IOException e)
+			{ e.printStackTrace(); }
+	}
+
+	private void writeSnapshot(long covered, SaveFormat.SavedGame game)
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeLong(covered);
+			out.write(SaveFormat.encode(game));
+			replace(SNAPSHOT, bytes.toByteArray());
+
+			closeJournal();		// Everything in the journal is now in the snapshot
+			Files.deleteIfExists(JOURNAL);
+		}
+		catch (IOException e)
+			{ e.printStackTrace(); }
+	}
+
+	private void closeJournal()
+	{
+		try
+		{
+			if (journal != null) journal.close();
+		}
+		catch (IOException e)
+			{ e.printStackTrace(); }
+		journal = null;
+	}
+
+	static void replace(Path file, byte[] data) throws IOException	// Write to a temp file, force it to disk, rename over the old file
+	{
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining()) out.write(buf);
+			out.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static class Recovered	// What recover() found: the game (null if there was none) and the last sequence number used
+	{
+		SaveFormat.SavedGame game;
+		long sequence;
+	}
+
+	static Recovered recover(int undoDepth)	// Rebuilds the last autosaved position: snapshot + journal replay
+	{
+		Recovered result = new Recovered();
+		try
+		{
+			if (Files.exists(SNAPSHOT))
+			{
+				byte[] data = Files.readAllBytes(SNAPSHOT);
+				ByteBuffer head = ByteBuffer.wrap(data);
+				result.sequence = head.getLong();
+				result.game = SaveFormat.decode(java.util.Arrays.copyOfRange(data, 8, data.length));
+			}
+			if (Files.exists(JOURNAL))
+			{
+				if (result.game == null) result.game = new SaveFormat.SavedGame();
+				int words = result.game.words(), size = RECORD_SIZE + 8 * words;
+				UndoLog history = new UndoLog(undoDepth, words);
+				result.game.restoreUndo(history);
+
+				ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(JOURNAL));
+				CRC32 crc = new CRC32();
+				while (buf.remaining() >= size)
+				{
+					int start = buf.position();
+					crc.reset();
+					crc.update(buf.array(), start, size - 4);
+					long seq = buf.getLong();
+					byte type = buf.get();
+					long[] board = new long[words];
+					for (int w = 0; w < words; w++) board[w] = buf.getLong();
+					int score = buf.getInt(), moves = buf.getInt();
+					int xplay = buf.get();
+					if (buf.getInt() != (int) crc.getValue()) break;	// Torn write at the end of the journal
+					if (seq <= result.sequence) continue;				// Already in the snapshot
+
+					if (type == MOVE) history.push(result.game.board, result.game.score, result.game.moves);
+					else history.pop();
+					result.game.board = board;
+					result.game.score = score;
+					result.game.moves = moves;
+					result.game.xplay = xplay;
+					result.sequence = seq;
+				}
+				result.game.setUndo(history);
+			}
+		}
+		catch (IOException | RuntimeException e)	// Unreadable autosave: start a new game instead
+		{
+			e.printStackTrace();
+			result.game = null;
+		}
+		if (result.game != null && GridEngine.maxExponent(result.game.size, result.game.board) == 0) result.game = null;
+		return result;
+	}
+}
@@ -0,0 +1,278 @@
+// Microbenchmarks for the engine operations the game makes on every key press, without starting JavaFX
+/* Usage:  java Benchmark [-time MS] [-warmup MS] [-save FILE] [-baseline FILE] [name filter]
+ * Every benchmark runs over three fixed corpora of real positions - early, middle and late thirds of games played by
+ * the 'corner' policy from seed 2048 - so results from different builds are measured on the same boards.  Each one
+ * reports ops/sec and bytes allocated per op (from the JVM's per-thread allocation counter).
+ *
+ * The grid4 and grid6 benchmarks time GridEngine, which the window plays on, at 4x4 and 6x6 over early, middle and late
+ * positions of games it played itself (always the first of left, up, right, down that moves).  Each op first copies its
+ * board into the engine.  move() keeps the engine's summary up to date, so after a move canMove(), isGameOver() and
+ * the win flag are field reads; 'check' and 'winlose' time what they cost from scratch (summarize(), as after an undo
+ * or a load).
+ *
+ * -save FILE writes the results, one "name ops/sec bytes/op" line per benchmark.  -baseline FILE reads such a file
+ * and prints how far each result moved from it, so an engine change can be checked against the build before it.
+ *
+ * Run with a fixed heap and nothing else busy (e.g. java -Xms1g -Xmx1g Benchmark) for numbers worth comparing.
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Benchmark
+{
+	static final long CORPUS_SEED = 2048;
+	static final int CORPUS_GAMES = 200;
+	static final int CORPUS_SIZE = 4096;	// Boards kept per phase
+	static final String[] PHASES = { "early", "mid", "late" };
+	static final int[] GRID_SIZES = { 4, 6 };
+	static final int GRID_GAMES = 40;
+
+	interface Op		// One operation on one board; the result is folded into sink so it cannot be optimized away
+	{
+		long run(long board) throws IOException;
+	}
+
+	static long sink = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		long time = 1000, warmup = 300;
+		String save = null, baseline = null, filter = "";
+		for (int n = 0; n < args.length; n++)
+		{
+			switch (args[n])
+			{
+			case "-time":
+				time = Long.parseLong(args[++n]);
+				break;
+			case "-warmup":
+				warmup = Long.parseLong(args[++n]);
+				break;
+			case "-save":
+				save = args[++n];
+				break;
+			case "-baseline":
+				baseline = args[++n];
+				break;
+			default:
+				filter = args[n];
+				break;
+			}
+		}
+
+		Map<String, double[]> base = new HashMap<>();
+		if (baseline != null)
+		{
+			for (String line : Files.readAllLines(Paths.get(baseline)))
+			{
+				String[] f = line.trim().split("\\s+");
+				if (f.length == 3) base.put(f[0], new double[] { Double.parseDouble(f[1]), Double.parseDouble(f[2]) });
+			}
+		}
+
+		long[][] corpora = corpora();
+		GameEngine engine = new GameEngine();
+		SpawnGenerator spawns = new SpawnGenerator(CORPUS_SEED);
+		UndoLog history = new UndoLog(10);
+		for (int n = 0; n < 10; n++) history.push(corpora[1][n], 1000 * n, n);
+		SaveFormat.SavedGame game = new SaveFormat.SavedGame();
+		game.setUndo(history);
+		Heuristic heuristic = Heuristic.standard();
+
+		String[] names = { "move.up", "move.down", "move.left", "move.right", "check", "spawn", "winlose", "undo", "save", "evaluate" };
+		Op[] ops =
+		{
+			b -> { engine.board = b; engine.move(GameEngine.UP); return engine.board; },	// MoveU (with score and merge flags)
+			b -> { engine.board = b; engine.move(GameEngine.DOWN); return engine.board; },
+			b -> { engine.board = b; engine.move(GameEngine.LEFT); return engine.board; },
+			b -> { engine.board = b; engine.move(GameEngine.RIGHT); return engine.board; },
+			b -> { engine.board = b; return (engine.canMove(GameEngine.UP) ? 1 : 0) + (engine.canMove(GameEngine.DOWN) ? 2 : 0)	// All four MoveXcheck
+					+ (engine.canMove(GameEngine.LEFT) ? 4 : 0) + (engine.canMove(GameEngine.RIGHT) ? 8 : 0); },
+			b -> { engine.board = b; engine.spawn(spawns); return engine.board; },			// gen_tile
+			b -> { engine.board = b; return (engine.isGameOver() ? 1 : 0) + GameEngine.maxExponent(b); },	// WinLoseCheck
+			b -> { history.push(b, 100, 10); long back = history.board(0); history.pop(); return back; },	// StoreBoard + undo_move
+			b -> { game.board[0] = b; return SaveFormat.decode(SaveFormat.encode(game)).board[0]; },	// save_game + load_game, in memory
+			b -> Float.floatToRawIntBits(heuristic.evaluate(b)),		// Expectimax leaf
+		};
+		List<String> allNames = new ArrayList<>(List.of(names));
+		List<Op> allOps = new ArrayList<>(List.of(ops));
+		List<long[][]> inputs = new ArrayList<>(Collections.nCopies(ops.length, corpora));	// Each op's three phases
+		for (int size : GRID_SIZES)
+		{
+			gridBenchmarks(size, allNames, allOps, inputs);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		PrintWriter out = (save == null) ? null : new PrintWriter(Files.newBufferedWriter(Paths.get(save)));
+		System.out.printf("%-22s %14s %10s %10s %s%n", "benchmark", "ops/sec", "ns/op", "bytes/op", (baseline == null) ? "" : "  vs baseline");
+		for (int n = 0; n < allOps.size(); n++)
+		{
+			for (int phase = 0; phase < PHASES.length; phase++)
+			{
+				String name = allNames.get(n) + "." + PHASES[phase];
+				if (name.contains(filter) == false) continue;
+				Op op = allOps.get(n);
+				long[] boards = inputs.get(n)[phase];
+				measure(op, boards, warmup * 1_000_000L);	// Warm-up, result thrown away
+				long allocated = threads.getCurrentThreadAllocatedBytes();
+				long[] result = measure(op, boards, time * 1_000_000L);
+				allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+				double opsPerSec = result[0] * 1e9 / result[1];
+				double bytesPerOp = (double) allocated / result[0];
+				String change = "";
+				double[] was = base.get(name);
+				if (was != null) change = String.format("  %+6.1f%%  %+.1f B", 100 * (opsPerSec / was[0] - 1), bytesPerOp - was[1]);
+				System.out.printf("%-22s %14.0f %10.2f %10.1f%s%n", name, opsPerSec, 1e9 / opsPerSec, bytesPerOp, change);
+				if (out != null) out.printf("%s %.0f %.2f%n", name, opsPerSec, bytesPerOp);
+			}
+		}
+		if (out != null) out.close();
+		if (sink == 42) System.out.println();	// Keeps every result live
+	}
+
+	static void gridBenchmarks(int size, List<String> names, List<Op> ops, List<long[][]> inputs)	// GridEngine ops on one board size
+	{
+		long[][][] boards = gridCorpora(size);
+		long[][] indexes = new long[3][];		// An op is given phase << 32 | n and plays boards[phase][n]
+		for (int p = 0; p < 3; p++)
+		{
+			indexes[p] = new long[boards[p].length];
+			for (int n = 0; n < indexes[p].length; n++)
+			{
+				indexes[p][n] = (long) p << 32 | n;
+			}
+		}
+		GridEngine engine = new GridEngine(size);
+		SpawnGenerator spawns = new SpawnGenerator(CORPUS_SEED);
+		String prefix = "grid" + size + ".";
+		String[] dirs = { "up", "down", "left", "right" };
+		for (int d = 0; d < 4; d++)
+		{
+			int dir = d;
+			names.add(prefix + "move." + dirs[d]);
+			ops.add(b -> { place(engine, boards, b); engine.move(dir); return engine.board[0] + engine.score; });	// StepMove's move
+		}
+		names.add(prefix + "check");
+		ops.add(b -> { place(engine, boards, b); engine.summarize(); return (engine.canMove(GameEngine.UP) ? 1 : 0) + (engine.canMove(GameEngine.DOWN) ? 2 : 0)
+				+ (engine.canMove(GameEngine.LEFT) ? 4 : 0) + (engine.canMove(GameEngine.RIGHT) ? 8 : 0); });
+		names.add(prefix + "spawn");
+		ops.add(b -> { place(engine, boards, b); engine.spawn(spawns); return engine.lastSpawn; });	// gen_tile
+		names.add(prefix + "winlose");
+		ops.add(b -> { place(engine, boards, b); engine.won = false; engine.summarize();		// WinLoseCheck
+				return (engine.isGameOver() ? 1 : 0) + (engine.won ? 2 : 0) + engine.maxExponent; });
+		for (int n = 0; n < 7; n++)
+		{
+			inputs.add(indexes);
+		}
+	}
+
+	static void place(GridEngine engine, long[][][] boards, long at)	// Copies board (phase << 32 | n) into the engine
+	{
+		System.arraycopy(boards[(int) (at >>> 32)][(int) at], 0, engine.board, 0, engine.words);
+	}
+
+	static long[] measure(Op op, long[] boards, long nanos) throws IOException	// {operations, elapsed ns}
+	{
+		long ops = 0, acc = 0, start = System.nanoTime(), elapsed;
+		do
+		{
+			for (long board : boards)
+			{
+				acc += op.run(board);
+			}
+			ops += boards.length;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < nanos);
+		sink += acc;
+		return new long[] { ops, elapsed };
+	}
+
+	static long[][] corpora()		// Early, mid and late game positions from a fixed set of seeded games
+	{
+		List<List<Long>> phases = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		GameEngine engine = new GameEngine();
+		long[] played = new long[1 << 14];
+		for (int g = 0; g < CORPUS_GAMES; g++)
+		{
+			SpawnGenerator spawns = new SpawnGenerator(SpawnGenerator.gameSeed(CORPUS_SEED, g));
+			engine.reset();
+			engine.board = spawns.startingBoard();
+			int count = 0, dir;
+			while ((dir = Policy.CORNER.choose(engine.board)) >= 0 && count < played.length)
+			{
+				played[count++] = engine.board;
+				engine.move(dir);
+				engine.spawn(spawns);
+			}
+			for (int n = 0; n < count; n++)
+			{
+				phases.get(Math.min(2, 3 * n / count)).add(played[n]);
+			}
+		}
+		long[][] corpora = new long[3][];
+		for (int p = 0; p < 3; p++)		// Evenly spaced sample of each phase
+		{
+			List<Long> all = phases.get(p);
+			int size = Math.min(CORPUS_SIZE, all.size());
+			corpora[p] = new long[size];
+			for (int n = 0; n < size; n++)
+			{
+				corpora[p][n] = all.get((int) ((long) n * all.size() / size));
+			}
+		}
+		return corpora;
+	}
+
+	static long[][][] gridCorpora(int size)	// Early, mid and late positions of seeded GridEngine games
+	{
+		List<List<long[]>> phases = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		GridEngine engine = new GridEngine(size);
+		int[] order = { GameEngine.LEFT, GameEngine.UP, GameEngine.RIGHT, GameEngine.DOWN };
+		List<long[]> played = new ArrayList<>();
+		for (int g = 0; g < GRID_GAMES; g++)
+		{
+			SpawnGenerator spawns = new SpawnGenerator(SpawnGenerator.gameSeed(CORPUS_SEED, g));
+			engine.start(spawns);
+			played.clear();
+			while (engine.isGameOver() == false && played.size() < (1 << 14))
+			{
+				played.add(engine.board.clone());
+				for (int dir : order)
+				{
+					if (engine.canMove(dir))
+					{
+						engine.move(dir);
+						break;
+					}
+				}
+				engine.spawn(spawns);
+			}
+			for (int n = 0; n < played.size(); n++)
+			{
+				phases.get(Math.min(2, 3 * n / played.size())).add(played.get(n));
+			}
+		}
+		long[][][] corpora = new long[3][][];
+		for (int p = 0; p < 3; p++)		// Evenly spaced sample of each phase
+		{
+			List<long[]> all = phases.get(p);
+			int count = Math.min(CORPUS_SIZE, all.size());
+			corpora[p] = new long[count][];
+			for (int n = 0; n < count; n++)
+			{
+				corpora[p][n] = all.get((int) ((long) n * all.size() / count));
+			}
+		}
+		return corpora;
+	}
+}
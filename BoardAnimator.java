@@ -0,0 +1,115 @@
+// Slide and pop animation for BoardView, driven by the tile movements GameEngine records for each move
+/* One AnimationTimer does the whole thing in two phases:
+ *   slide - every tile listed in the move deltas is translated from its old cell toward its new one
+ *   pop   - the board is switched to the new position and combined/new tiles briefly grow and shrink back
+ * Starting a new animation while one is running snaps the old one to its end first, so the screen never falls behind
+ * the game.  onIdle runs when an animation finishes (the game uses it to play any moves queued up meanwhile).
+ */
+
+import javafx.animation.AnimationTimer;
+
+public class BoardAnimator extends AnimationTimer
+{
+	static final long SLIDE_NANOS = 90_000_000L;	// 90 ms slide
+	static final long POP_NANOS = 90_000_000L;		// 90 ms pop
+
+	final BoardView view;
+	final Runnable onIdle;
+	final int size;
+	final double step;		// Distance between neighbouring cells (tile + grdBase gap)
+	final int[] deltas;
+	int deltaCount = 0;
+	final long[] target;	// Board to show once the slide is over
+	long popMask = 0;		// Cells (bit row*size + col) that pop at the end
+	long started = -1;		// Timestamp of the first frame (-1 until it arrives)
+	boolean slid = false;
+	boolean running = false;
+
+	BoardAnimator(BoardView view, Runnable onIdle)
+	{
+		this.view = view;
+		this.onIdle = onIdle;
+		size = view.size;
+		step = view.tileSize + BoardView.GAP;
+		deltas = new int[size * size];
+		target = new long[GridEngine.words(size)];
+	}
+
+	void animate(int[] moves, int count, long[] board, long pops)	// Animates from the board on screen to 'board'
+	{
+		if (running) finish(false);
+		System.arraycopy(moves, 0, deltas, 0, count);
+		deltaCount = count;
+		System.arraycopy(board, 0, target, 0, target.length);
+		popMask = pops;
+		started = -1;
+		slid = false;
+		running = true;
+		start();
+	}
+
+	@Override public void handle(long now)
+	{
+		if (started < 0)		// First frame: moving tiles go on top of the ones they slide over
+		{
+			started = now;
+			for (int n = 0; n < deltaCount; n++)
+			{
+				view.tiles[deltas[n] & 0xFF].toFront();
+			}
+		}
+		long elapsed = now - started;
+
+		if (elapsed < SLIDE_NANOS)
+		{
+			double f = (double) elapsed / SLIDE_NANOS;
+			for (int n = 0; n < deltaCount; n++)
+			{
+				int from = deltas[n] & 0xFF, to = (deltas[n] >>> 8) & 0xFF;
+				view.tiles[from].setTranslateX((to % size - from % size) * step * f);
+				view.tiles[from].setTranslateY((to / size - from / size) * step * f);
+			}
+		}
+		else if (elapsed < SLIDE_NANOS + POP_NANOS)
+		{
+			if (slid == false) endSlide();
+			double scale = 1 + 0.15 * Math.sin(Math.PI * (elapsed - SLIDE_NANOS) / POP_NANOS);
+			for (int cell = 0; cell < view.tiles.length; cell++)
+			{
+				if ((popMask & (1L << cell)) != 0)
+				{
+					view.tiles[cell].setScaleX(scale);
+					view.tiles[cell].setScaleY(scale);
+				}
+			}
+		}
+		else
+		{
+			finish(true);
+		}
+	}
+
+	void endSlide()			// Puts every tile back in its own cell and shows the new board
+	{
+		for (int n = 0; n < deltaCount; n++)
+		{
+			view.tiles[deltas[n] & 0xFF].setTranslateX(0);
+			view.tiles[deltas[n] & 0xFF].setTranslateY(0);
+		}
+		view.show(target);
+		slid = true;
+	}
+
+	void finish(boolean notify)	// Jumps to the end state; runs onIdle if the animation ended on its own
+	{
+		if (slid == false) endSlide();
+		for (int cell = 0; cell < view.tiles.length; cell++)
+		{
+			view.tiles[cell].setScaleX(1);
+			view.tiles[cell].setScaleY(1);
+		}
+		stop();
+		running = false;
+		if (notify) onIdle.run();
+	}
+}
@@ -0,0 +1,106 @@
+// Retained-mode drawing of the game tiles on top of the grdBase background rectangles
+/* The tile nodes (a rounded Rectangle with a Label on top, one per cell) are created once and stay in the grid for the
+ * whole game.  show() XORs each word of the new board (see GridEngine) with the one on screen and only restyles the
+ * cells whose nibble or byte changed, so a move touches a handful of nodes instead of rebuilding the whole grid.
+ * Whatever the board size, the board takes the same space on screen as the original 4x4 one.
+ */
+
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.StackPane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+
+public class BoardView
+{
+	static final double TILE_SIZE = 132;	// Tile size on the 4x4 board
+	static final double GAP = 18;			// grdBase gap between tiles
+
+	// Tile colours by exponent (index 1 = "2", 11 = "2048"); anything bigger uses the last entry
+	static final Color[] FILL = {
+			Color.rgb(204, 192, 179), Color.rgb(238, 228, 218), Color.rgb(237, 224, 200), Color.rgb(242, 177, 121),
+			Color.rgb(245, 149, 99), Color.rgb(246, 124, 95), Color.rgb(246, 94, 59), Color.rgb(237, 207, 114),
+			Color.rgb(237, 204, 97), Color.rgb(237, 200, 80), Color.rgb(237, 197, 63), Color.rgb(237, 194, 46),
+			Color.rgb(60, 58, 50) };
+
+	final int size;				// Cells per side
+	final double tileSize;
+	final StackPane[] tiles;	// Indexed by cell: row*size + col
+	final Rectangle[] faces;
+	final Label[] labels;
+	final long[] shown;			// Board currently on screen (all tiles start hidden = empty board)
+	final Font[] fonts = new Font[32];		// Smaller text for longer numbers, made once
+
+	BoardView(GridPane grid, int size)	// Adds the (hidden) tile nodes to the grid, on top of whatever is already in each cell
+	{
+		this.size = size;
+		tileSize = tileSize(size);
+		tiles = new StackPane[size * size];
+		faces = new Rectangle[size * size];
+		labels = new Label[size * size];
+		shown = new long[GridEngine.words(size)];
+		for (int cell = 0; cell < size * size; cell++)
+		{
+			faces[cell] = new Rectangle(0, 0, tileSize, tileSize);
+			faces[cell].setArcHeight(10);
+			faces[cell].setArcWidth(10);
+			labels[cell] = new Label();
+			tiles[cell] = new StackPane(faces[cell], labels[cell]);
+			tiles[cell].setAlignment(Pos.CENTER);
+			tiles[cell].setMouseTransparent(true);
+			tiles[cell].setVisible(false);
+			grid.add(tiles[cell], cell % size, cell / size);
+		}
+	}
+
+	static double tileSize(int size)	// Tiles (and background rectangles) of a size x size board
+	{
+		return (4 * TILE_SIZE - (size - 4) * GAP) / size;
+	}
+
+	void show(long[] board)		// Brings the screen up to date with 'board', touching only the cells that changed
+	{
+		int bits = (size <= 4) ? 4 : 8;		// Nibble cells in one packed word, or one byte per cell in each row word
+		for (int w = 0; w < board.length; w++)
+		{
+			long changed = board[w] ^ shown[w];
+			for (int lane = 0; changed != 0; lane++, changed >>>= bits)
+			{
+				if ((changed & ((1 << bits) - 1)) == 0) continue;
+				int col = (size <= 4) ? lane % 4 : lane;
+				int row = (size <= 4) ? lane / 4 : w;
+				paint(row * size + col, GridEngine.exponentAt(size, board, col, row));
+			}
+			shown[w] = board[w];
+		}
+	}
+
+	void paint(int cell, int exponent)
+	{
+		if (exponent == 0)
+		{
+			tiles[cell].setVisible(false);
+			return;
+		}
+		faces[cell].setFill(FILL[Math.min(exponent, FILL.length - 1)]);
+		labels[cell].setText(Long.toString(1L << exponent));
+		labels[cell].setTextFill(exponent <= 2 ? Color.rgb(119, 110, 101) : Color.rgb(249, 246, 242));
+		labels[cell].setFont(font(exponent));
+		tiles[cell].setVisible(true);
+	}
+
+	Font font(int exponent)
+	{
+		exponent = Math.min(exponent, fonts.length - 1);
+		if (fonts[exponent] == null)
+		{
+			int digits = Long.toString(1L << exponent).length();
+			double points = digits <= 2 ? 56 : digits == 3 ? 48 : digits == 4 ? 40 : digits == 5 ? 32 : 26;
+			fonts[exponent] = Font.font("Impact", FontWeight.BOLD, points * tileSize / TILE_SIZE);
+		}
+		return fonts[exponent];
+	}
+}
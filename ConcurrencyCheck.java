@@ -0,0 +1,165 @@
+// Headless check of the window's threading: moves on one game thread while expectimax searches run on snapshots
+/* Usage:  java ConcurrencyCheck [-games N] [-keys K] [-seed S]
+ * Plays N games (default 20) the way TwentyFortyEight does, without JavaFX.  The main thread stands in for the FX
+ * thread: it owns a GameState and plays K seeded key presses per game (default 2000) through GameState.move(), the
+ * same steps as StepMove.  Every few keys it asks for a hint through the window's own Analysis: the board goes to the
+ * analysis thread as a value, Expectimax.choose() runs there on the common ForkJoinPool with a shared cache, and the
+ * answer comes back to the game thread through an event queue (standing in for Platform.runLater).  Analysis throws
+ * away an answer for a board that has moved on and searches again; one for the current board is played, like
+ * auto-play.  This is a headless harness for the FX path: the key handler and the display are not exercised.
+ *
+ * Each game is then played again on one thread with nothing else running: the same seed and the moves that were
+ * played must give the same board, score, move count and undo history (compared as save files), and every hint that
+ * was played must be the move a single-threaded search picks on that board.  Exits with 1 on the first mismatch.
+ */
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+public class ConcurrencyCheck
+{
+	static final int HINT_EVERY = 16;		// Key presses between hint requests
+	static final long KEY_NANOS = 50_000;	// Pause after each key press, so searches overlap moves
+
+	final BlockingQueue<Runnable> events = new LinkedBlockingQueue<>();	// Work for the game thread (Platform.runLater)
+	final Expectimax advisor = new Expectimax(3, new EvaluationCache(), ForkJoinPool.commonPool());
+	final Expectimax reference = new Expectimax(3, new EvaluationCache(), null);	// Single-threaded, only used after each game
+
+	GameState state;
+	final Analysis analysis = new Analysis(events::add, () -> state.engine.board[0], advisor::choose);	// Only reads the board on this thread
+	byte[] played;			// Every direction played, in order
+	int count, pending;		// Moves played; hints asked for and not yet answered
+	long[] hintBoards;		// Board of each hint that was played, and its move
+	int[] hintMoves;
+	int hints;
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int games = 20, keys = 2000;
+		long seed = ThreadLocalRandom.current().nextLong();
+		for (int n = 0; n + 1 < args.length; n += 2)
+		{
+			switch (args[n])
+			{
+			case "-games":
+				games = Integer.parseInt(args[n + 1]);
+				break;
+			case "-keys":
+				keys = Integer.parseInt(args[n + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[n + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[n]);
+				System.exit(1);
+			}
+		}
+
+		ConcurrencyCheck check = new ConcurrencyCheck();
+		long start = System.nanoTime(), moves = 0, hints = 0, stale = 0;
+		for (int g = 0; g < games; g++)
+		{
+			long gameSeed = SpawnGenerator.gameSeed(seed, g);
+			check.play(gameSeed, keys);
+			String problem = check.verify(gameSeed);
+			if (problem != null)
+			{
+				System.out.println("game " + g + " (seed " + gameSeed + "): " + problem);
+				System.exit(1);
+			}
+			moves += check.count;
+			hints += check.hints;
+			stale += check.analysis.stale;
+		}
+		System.out.printf("%d games, %d moves, %d hints played, %d stale answers searched again, in %.1f s: all match%n",
+				games, moves, hints, stale, (System.nanoTime() - start) / 1e9);
+		System.exit(0);
+	}
+
+	void play(long seed, int keys) throws InterruptedException	// One game: seeded key presses and hints, all on this thread
+	{
+		state = new GameState(4, 10, new SpawnGenerator(seed));
+		state.start();
+		played = new byte[1024];
+		hintBoards = new long[64];
+		hintMoves = new int[64];
+		count = pending = hints = analysis.stale = 0;
+		SplittableRandom presses = new SplittableRandom(~seed);	// Which keys are pressed: apart from the tiles
+		int key = 0;
+		while (key < keys || pending > 0)
+		{
+			Runnable event = events.poll();
+			if (event == null && key == keys) event = events.take();	// Only answers left to wait for
+			if (event != null)
+			{
+				event.run();
+				continue;
+			}
+			if (state.engine.isGameOver())
+			{
+				key = keys;		// Nothing left to press; the answers still waiting will be for this board
+				continue;
+			}
+			press(presses.nextInt(4));
+			if (++key % HINT_EVERY == 0)
+			{
+				pending++;
+				analyse();
+			}
+			LockSupport.parkNanos(KEY_NANOS);
+		}
+	}
+
+	void press(int dir)		// A key press: the move if the board changes that way (StepMove)
+	{
+		if (state.move(dir) == false) return;
+		if (count == played.length) played = Arrays.copyOf(played, 2 * count);
+		played[count++] = (byte) dir;
+	}
+
+	void analyse()			// A hint, played when it comes back (Analysis only answers for the board as it is then)
+	{
+		analysis.analyse(dir ->
+		{
+			pending--;
+			if (dir < 0) return;
+			if (hints == hintBoards.length)
+			{
+				hintBoards = Arrays.copyOf(hintBoards, 2 * hints);
+				hintMoves = Arrays.copyOf(hintMoves, 2 * hints);
+			}
+			hintBoards[hints] = state.engine.board[0];
+			hintMoves[hints++] = dir;
+			int before = count;
+			press(dir);
+			if (count == before) throw new AssertionError("hint " + dir + " does not move " + Long.toHexString(hintBoards[hints - 1]));
+		});
+	}
+
+	String verify(long seed)	// Plays the game again on this thread alone; null if it matches, else what differs
+	{
+		GameState alone = new GameState(4, 10, new SpawnGenerator(seed));
+		alone.start();
+		for (int n = 0; n < count; n++)
+		{
+			if (alone.move(played[n]) == false) return "move " + n + " does not move the board when played alone";
+		}
+		if (Arrays.equals(SaveFormat.encode(alone.save()), SaveFormat.encode(state.save())) == false)
+		{
+			return "played alone it ends on " + Long.toHexString(alone.engine.board[0]) + " score " + alone.engine.score
+					+ ", not " + Long.toHexString(state.engine.board[0]) + " score " + state.engine.score;
+		}
+		for (int n = 0; n < hints; n++)
+		{
+			int dir = reference.choose(hintBoards[n]);
+			if (dir != hintMoves[n]) return "hint " + n + " on " + Long.toHexString(hintBoards[n]) + " was " + hintMoves[n] + ", alone " + dir;
+		}
+		return null;
+	}
+}
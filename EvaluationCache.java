@@ -0,0 +1,192 @@
+// Bounded cache of search results, shared by every search thread, keyed on a board's symmetry class
+/* The 8 rotations and reflections of a 4x4 board all have the same value, so each board is stored under its
+ * canonical form - the smallest of the 8 packed longs - and a position reached in a mirrored or rotated order is still
+ * a hit.  An entry holds the value, the remaining search depth and, for a position with the player to move, the best
+ * direction (in the canonical board's orientation: see moveBack() to turn it back).
+ *
+ * Entries live in two parallel long arrays grouped into sets of WAYS slots.  A key is stored XOR'ed with its data
+ * word, so a slot that another thread is halfway through writing reads back as a miss instead of a wrong value, and
+ * nothing is locked.  When a set is full the entry to replace is picked by the clock (second chance) rule: each slot
+ * has a referenced flag that a hit sets, and the set's hand sweeps past referenced slots, clearing them, until it
+ * finds one that was not used since its last pass.
+ *
+ * The table is sized from a memory budget (-Dcache.mb, default 32) and never grows.  The number of sets is whatever
+ * fills the budget, not a power of two, so a set is picked by multiplying the hash's high half by the set count and
+ * keeping the top 32 bits of the product (a multiply-shift instead of a mask).  Hits, misses and evictions are
+ * counted so the budget can be sized for a workload (Simulator prints them).
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+final class EvaluationCache
+{
+	static final int WAYS = 4;				// Slots per set
+	static final int SLOT_BYTES = 17;		// Key, data and referenced flag
+	static final int DEFAULT_MB = Integer.getInteger("cache.mb", 32);
+
+	static final int PLAYER = 1 << 12;		// Data flag: a position with the player to move (value is the best move's)
+
+	final long[] keys;		// canonical board ^ data
+	final long[] data;		// float bits of the value in the high half, then the flags: PLAYER, best move + 1 in bits
+							// 8-11 (0 = none), search depth + 1 in the low byte (so an empty slot never matches)
+	final byte[] referenced;	// Set by a hit, cleared as the clock hand passes
+	final byte[] hands;			// Clock hand of each set
+	final int sets;
+
+	final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+	EvaluationCache()
+	{
+		this((long) DEFAULT_MB << 20);
+	}
+
+	EvaluationCache(long budgetBytes)	// As many sets as fit in the budget (at least one)
+	{
+		sets = (int) Math.min(Math.max(1, budgetBytes / (WAYS * SLOT_BYTES + 1)), Integer.MAX_VALUE / (2 * WAYS));
+		keys = new long[sets * WAYS];
+		data = new long[sets * WAYS];
+		referenced = new byte[sets * WAYS];
+		hands = new byte[sets];
+	}
+
+	long get(long canonical, int depth, boolean player)	// Data word of the stored entry (see value(), move()), or 0 on a miss
+	{
+		int base = set(canonical, depth) * WAYS;
+		long want = (depth + 1) | (player ? PLAYER : 0);
+		for (int slot = base; slot < base + WAYS; slot++)
+		{
+			long d = data[slot];
+			if ((keys[slot] ^ d) == canonical && (d & (PLAYER | 0xFF)) == want)
+			{
+				if (referenced[slot] == 0) referenced[slot] = 1;
+				hits.increment();
+				return d;
+			}
+		}
+		misses.increment();
+		return 0;
+	}
+
+	void put(long canonical, int depth, boolean player, float value, int move)	// move is -1 for none
+	{
+		long d = ((long) Float.floatToRawIntBits(value) << 32) | (player ? PLAYER : 0) | ((move + 1) << 8) | (depth + 1);
+		int set = set(canonical, depth);
+		int base = set * WAYS, victim = -1;
+		for (int slot = base; slot < base + WAYS && victim < 0; slot++)	// Same key, or else an empty slot
+		{
+			long old = data[slot];
+			if (old == 0 || ((keys[slot] ^ old) == canonical && (old & (PLAYER | 0xFF)) == (d & (PLAYER | 0xFF)))) victim = slot;
+		}
+		if (victim < 0)		// Set is full: clock sweep
+		{
+			int hand = hands[set];
+			while (referenced[base + hand] != 0)
+			{
+				referenced[base + hand] = 0;
+				hand = (hand + 1) % WAYS;
+			}
+			victim = base + hand;
+			hands[set] = (byte) ((hand + 1) % WAYS);
+			evictions.increment();
+		}
+		referenced[victim] = 0;
+		data[victim] = d;
+		keys[victim] = canonical ^ d;
+	}
+
+	static float value(long entry)
+	{
+		return Float.intBitsToFloat((int) (entry >>> 32));
+	}
+
+	static int move(long entry)		// Best direction in the canonical orientation, -1 if none was stored
+	{
+		return (int) ((entry >>> 8) & 0xF) - 1;
+	}
+
+	void clear()
+	{
+		java.util.Arrays.fill(keys, 0);
+		java.util.Arrays.fill(data, 0);
+		java.util.Arrays.fill(referenced, (byte) 0);
+		java.util.Arrays.fill(hands, (byte) 0);
+	}
+
+	long capacity()		// Entries the table can hold
+	{
+		return keys.length;
+	}
+
+	long memoryBytes()
+	{
+		return (long) keys.length * SLOT_BYTES + hands.length;
+	}
+
+	String stats()		// One line of counters for reports
+	{
+		long h = hits.sum(), m = misses.sum();
+		return String.format("cache: %d entries (%.1f MB), %d hits, %d misses (%.1f%% hit), %d evictions",
+				capacity(), memoryBytes() / 1048576.0, h, m, (h + m == 0) ? 0.0 : 100.0 * h / (h + m), evictions.sum());
+	}
+
+	private int set(long canonical, int depth)
+	{
+		long h = (canonical + depth) * 0x9E3779B97F4A7C15L;	// Fibonacci hashing spreads the nibbles over the whole word
+		return (int) (((h >>> 32) * sets) >>> 32);	// High half scaled onto [0, sets)
+	}
+
+	// Symmetries.  Symmetry s applies transpose() if bit 2 is set, then flip() if bit 1 is set, then mirror() if bit 0 is set.
+
+	static long canonical(long board)	// Smallest of the 8 symmetric forms of a board
+	{
+		long t = GameEngine.transpose(board);
+		long m = mirror(board), mt = mirror(t);
+		return Math.min(Math.min(Math.min(board, m), Math.min(flip(board), flip(m))),
+				Math.min(Math.min(t, mt), Math.min(flip(t), flip(mt))));
+	}
+
+	static int symmetry(long board)		// Symmetry s that gives the canonical form: transform(board, s) == canonical(board)
+	{
+		int best = 0;
+		long min = board;
+		for (int s = 1; s < 8; s++)
+		{
+			long b = transform(board, s);
+			if (b < min)
+			{
+				min = b;
+				best = s;
+			}
+		}
+		return best;
+	}
+
+	static long transform(long board, int s)
+	{
+		if ((s & 4) != 0) board = GameEngine.transpose(board);
+		if ((s & 2) != 0) board = flip(board);
+		if ((s & 1) != 0) board = mirror(board);
+		return board;
+	}
+
+	static int moveBack(int s, int dir)	// Direction on the original board matching 'dir' on transform(board, s)
+	{
+		if (dir < 0) return dir;
+		if ((s & 1) != 0 && dir >= GameEngine.LEFT) dir ^= 1;	// Mirror swaps left and right
+		if ((s & 2) != 0 && dir <= GameEngine.DOWN) dir ^= 1;	// Flip swaps up and down
+		if ((s & 4) != 0) dir ^= 2;								// Transpose swaps up/left and down/right
+		return dir;
+	}
+
+	static long mirror(long board)		// Reverses the cells of every row (left-right reflection)
+	{
+		board = ((board & 0x0F0F0F0F0F0F0F0FL) << 4) | ((board >>> 4) & 0x0F0F0F0F0F0F0F0FL);
+		return ((board & 0x00FF00FF00FF00FFL) << 8) | ((board >>> 8) & 0x00FF00FF00FF00FFL);
+	}
+
+	static long flip(long board)		// Reverses the order of the rows (top-bottom reflection)
+	{
+		board = Long.reverseBytes(board);
+		return ((board & 0x00FF00FF00FF00FFL) << 8) | ((board >>> 8) & 0x00FF00FF00FF00FFL);
+	}
+}
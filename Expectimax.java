@@ -0,0 +1,194 @@
+// Expectimax move advisor: the "hint" key, auto-play, and the 'expectimax' policy of the Simulator
+/* The search alternates between the player's move (take the best of the four directions) and the random spawn
+ * (average over every empty cell, 2 at 89% and 4 at 11%, the same odds as gen_tile).  Leaves are scored by a
+ * Heuristic (RowHeuristic unless another is given: table lookups per row and column).  A cache must only be shared by
+ * searches using the same heuristic.
+ * Both kinds of node are cached in an EvaluationCache keyed on (canonical board, depth left), so a position reached by
+ * another move order, or as a rotation or reflection of one already searched, is not searched again.  Every node is
+ * worked out on its canonical form, so each value depends only on its key; player nodes also keep their best move,
+ * which lets choose() answer a repeated hint straight from the cache.  One cache can be shared by many searches.
+ *
+ * Given a ForkJoinPool, the four root directions are searched in parallel, and chance nodes with at least SPLIT_DEPTH
+ * moves left fork one task per empty cell.  Child values are always added up in cell order, so the chosen move is the
+ * same for any number of threads.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Expectimax implements Policy
+{
+	static final float PROB_2 = 0.89f, PROB_4 = 0.11f;
+	static final int SPLIT_DEPTH = 2;	// Chance nodes with this many moves left (or more) are split across workers
+
+	final int maxDepth;					// Upper limit on player moves looked ahead
+	final EvaluationCache cache;
+	final Heuristic heuristic;			// Scores the leaves
+	final ForkJoinPool pool;			// Workers for the parallel search (null = search on the calling thread)
+	final LongAdder nodes = new LongAdder();	// Chance nodes visited, for nodes/sec figures
+
+	Expectimax()
+	{
+		this(3, new EvaluationCache(), null);
+	}
+
+	Expectimax(int maxDepth, EvaluationCache cache, ForkJoinPool pool)
+	{
+		this(maxDepth, cache, pool, Heuristic.standard());
+	}
+
+	Expectimax(int maxDepth, EvaluationCache cache, ForkJoinPool pool, Heuristic heuristic)
+	{
+		this.maxDepth = maxDepth;
+		this.cache = cache;
+		this.pool = pool;
+		this.heuristic = heuristic;
+	}
+
+	@Override public int choose(long board)	// Best direction for this board, or -1 if the game is over
+	{
+		int depth = searchDepth(board);
+		int symmetry = EvaluationCache.symmetry(board);		// The search runs on the canonical form; its move is turned back
+		long canonical = EvaluationCache.transform(board, symmetry);
+		long entry = cache.get(canonical, depth, true);
+		if (entry != 0) return EvaluationCache.moveBack(symmetry, EvaluationCache.move(entry));
+
+		float[] values = (pool == null) ? rootValues(canonical, depth) : pool.invoke(ForkJoinTask.adapt(() -> rootValues(canonical, depth)));
+		int best = -1;
+		float bestValue = -1;
+		for (int dir = 0; dir <= 3; dir++)
+		{
+			if (values[dir] > bestValue)	// Illegal moves are -1, so they are never picked
+			{
+				best = dir;
+				bestValue = values[dir];
+			}
+		}
+		cache.put(canonical, depth, true, Math.max(bestValue, 0), best);	// Same entry max() would make
+		return EvaluationCache.moveBack(symmetry, best);
+	}
+
+	float[] rootValues(long board, int depth)	// Value of each direction (-1 if it does not move), forked when in a pool
+	{
+		float[] values = { -1, -1, -1, -1 };
+		if (!ForkJoinTask.inForkJoinPool())
+		{
+			for (int dir = 0; dir <= 3; dir++)
+			{
+				long moved = GameEngine.move(board, dir);
+				if (moved != board) values[dir] = chance(moved, depth - 1);
+			}
+			return values;
+		}
+
+		List<ForkJoinTask<Void>> tasks = new ArrayList<>(4);
+		for (int dir = 0; dir <= 3; dir++)
+		{
+			long moved = GameEngine.move(board, dir);
+			if (moved == board) continue;
+			int d = dir;
+			tasks.add(ForkJoinTask.adapt(() -> { values[d] = chance(moved, depth - 1); }, null));
+		}
+		ForkJoinTask.invokeAll(tasks);
+		return values;
+	}
+
+	int searchDepth(long board)	// Looks further ahead when the board is crowded with many different tiles
+	{
+		int distinct = Integer.bitCount(tileSet(board) & ~1);
+		return Math.max(2, Math.min(maxDepth, distinct - 4));
+	}
+
+	float chance(long board, int depth)	// Average over every possible spawn
+	{
+		if (depth <= 0) return heuristic.evaluate(board);
+		board = EvaluationCache.canonical(board);
+		long entry = cache.get(board, depth, false);
+		if (entry != 0) return EvaluationCache.value(entry);
+
+		nodes.increment();
+
+		int empty = GameEngine.emptyCount(board);
+		float value;
+		if (empty == 0)
+		{
+			value = heuristic.evaluate(board);
+		}
+		else if (depth >= SPLIT_DEPTH && pool != null && ForkJoinTask.inForkJoinPool())
+		{
+			value = chanceParallel(board, depth, empty);
+		}
+		else
+		{
+			float total = 0;
+			for (int shift = 0; shift < 64; shift += 4)
+			{
+				if (((board >>> shift) & 0xF) != 0) continue;
+				total += PROB_2 * max(board | (1L << shift), depth) + PROB_4 * max(board | (2L << shift), depth);
+			}
+			value = total / empty;
+		}
+		cache.put(board, depth, false, value, -1);
+		return value;
+	}
+
+	float chanceParallel(long board, int depth, int empty)	// Same sum as chance(), with one forked task per empty cell
+	{
+		float[] parts = new float[empty];
+		List<ForkJoinTask<Void>> tasks = new ArrayList<>(empty);
+		int n = 0;
+		for (int shift = 0; shift < 64; shift += 4)
+		{
+			if (((board >>> shift) & 0xF) != 0) continue;
+			long two = board | (1L << shift), four = board | (2L << shift);
+			int slot = n++;
+			tasks.add(ForkJoinTask.adapt(() -> { parts[slot] = PROB_2 * max(two, depth) + PROB_4 * max(four, depth); }, null));
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+		float total = 0;
+		for (float part : parts)	// Added in cell order so the result does not depend on which task finished first
+		{
+			total += part;
+		}
+		return total / empty;
+	}
+
+	float max(long board, int depth)	// Best of the four moves (0 if none is possible: the game is lost)
+	{
+		if (depth > 1)		// Next to the leaves a lookup costs about as much as the four moves it would save
+		{
+			board = EvaluationCache.canonical(board);
+			long entry = cache.get(board, depth, true);
+			if (entry != 0) return EvaluationCache.value(entry);
+		}
+		float best = 0;
+		int bestDir = -1;
+		for (int dir = 0; dir <= 3; dir++)
+		{
+			long moved = GameEngine.move(board, dir);
+			if (moved == board) continue;
+			float value = chance(moved, depth - 1);
+			if (value > best || bestDir < 0)
+			{
+				best = value;
+				bestDir = dir;
+			}
+		}
+		if (depth > 1) cache.put(board, depth, true, best, bestDir);
+		return best;
+	}
+
+	static int tileSet(long board)	// Bit e is set if a tile with exponent e is on the board
+	{
+		int set = 0;
+		for (; board != 0; board >>>= 4)
+		{
+			set |= 1 << (board & 0xF);
+		}
+		return set;
+	}
+}
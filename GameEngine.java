@@ -0,0 +1,287 @@
+// Headless 2048 engine used by the JavaFX front end (TwentyFortyEight) and by anything that needs to play without a window
+/* The whole 4x4 board lives in a single long: 16 cells of 4 bits each, every cell holding the log2 exponent of its tile
+ * (0 = empty, 1 = 2, 2 = 4, ... 11 = 2048, 15 = 32768).  Cell (col,row) is nibble number (row*4 + col), so each row of
+ * the board is one 16-bit group with column 0 in the lowest nibble.  Copying a board is one register move and
+ * comparing two boards is a single '=='.
+ */
+
+public class GameEngine
+{
+	// Move directions (same order as the arrow key cases in the TwentyFortyEight key handler)
+	static final int UP = 0, DOWN = 1, LEFT = 2, RIGHT = 3;
+
+	static final long ROW_MASK = 0xFFFFL;		// One row (4 cells) of the packed board
+	static final int MAX_EXPONENT = 15;			// A nibble tops out at 2^15 = 32768
+
+	long board = 0;			// Packed board (see above)
+	int score = 0;			// Running score, same rules as the original MoveX methods (sum of all merged tiles)
+	int moves = 0;			// Move counter
+	int lastMerged = 0;		// Bit (row*4 + col) is set for each cell that was combined by the last call to move()
+	int lastSpawn = -1;		// Cell index (row*4 + col) of the tile added by the last call to spawn()
+	int[] deltas = null;	// If set (the display sets it), move() lists every tile that moved: from | to << 8 | merged << 16
+	int deltaCount = 0;		// Number of entries move() put in deltas
+
+	void reset()			// Empty board, zero score and moves
+	{
+		board = 0;
+		score = 0;
+		moves = 0;
+		lastMerged = 0;
+		lastSpawn = -1;
+	}
+
+	boolean spawn(SpawnGenerator spawns)	// Adds a random tile (2 at 89%, 4 at 11%, same as gen_tile). Returns false if the board is full
+	{
+		int spawn = spawns.next(board);
+		if (spawn < 0) return false;
+		lastSpawn = spawn & 0xF;
+		board |= (long) (spawn >>> 4) << (4 * lastSpawn);
+		return true;
+	}
+
+	boolean isGameOver()	// No direction changes the board
+	{
+		return movable(board) == 0;
+	}
+
+	boolean canMove(int dir)	// Checks to see if moving in the given direction changes the board
+	{
+		return move(board, dir) != board;
+	}
+
+	boolean move(int dir)		// Moves the board, updating score, move counter and merge flags. Returns false if nothing moved
+	{
+		long result = 0;
+		int gained = 0, merged = 0;
+		boolean vertical = (dir == UP || dir == DOWN);
+		char[] table = (dir == UP || dir == LEFT) ? MoveTables.LEFT : MoveTables.RIGHT;
+		byte[] flags = (dir == UP || dir == LEFT) ? MoveTables.MERGED_LEFT : MoveTables.MERGED_RIGHT;
+		long src = vertical ? transpose(board) : board;
+
+		for (int line = 0; line <= 3; line++)
+		{
+			int row = (int) ((src >>> (16 * line)) & ROW_MASK);
+			result |= (long) table[row] << (16 * line);
+			gained += MoveTables.SCORE[row];
+
+			int mask = flags[row];	// Merge flags for this line, one bit per position along the line
+			for (int pos = 0; mask != 0; pos++, mask >>>= 1)
+			{
+				if ((mask & 1) != 0)
+					merged |= vertical ? 1 << (pos * 4 + line) : 1 << (line * 4 + pos);
+			}
+		}
+		if (vertical) result = transpose(result);
+		if (result == board) return false;
+
+		if (deltas != null) deltaCount = moveDeltas(board, dir, deltas);
+		board = result;
+		score += gained;
+		moves++;
+		lastMerged = merged;
+		return true;
+	}
+
+	static long move(long board, int dir)	// Pure version of move() for search code: returns the moved board only
+	{
+		switch (dir)
+		{
+		case LEFT:
+			return moveRows(board, MoveTables.LEFT);
+		case RIGHT:
+			return moveRows(board, MoveTables.RIGHT);
+		case UP:
+			return transpose(moveRows(transpose(board), MoveTables.LEFT));
+		default:
+			return transpose(moveRows(transpose(board), MoveTables.RIGHT));
+		}
+	}
+
+	static int movable(long board)	// Bit 'dir' is set for each direction that changes the board (eight table reads)
+	{
+		int h = MoveTables.MOVABLE[(int) (board & ROW_MASK)] | MoveTables.MOVABLE[(int) ((board >>> 16) & ROW_MASK)]
+				| MoveTables.MOVABLE[(int) ((board >>> 32) & ROW_MASK)] | MoveTables.MOVABLE[(int) (board >>> 48)];
+		long t = transpose(board);
+		int v = MoveTables.MOVABLE[(int) (t & ROW_MASK)] | MoveTables.MOVABLE[(int) ((t >>> 16) & ROW_MASK)]
+				| MoveTables.MOVABLE[(int) ((t >>> 32) & ROW_MASK)] | MoveTables.MOVABLE[(int) (t >>> 48)];
+		return ((h & 1) << LEFT) | ((h >>> 1) << RIGHT) | ((v & 1) << UP) | ((v >>> 1) << DOWN);
+	}
+
+	static int moveScore(long board, int dir)	// Score a move would gain, without making it
+	{
+		long src = (dir == UP || dir == DOWN) ? transpose(board) : board;
+		return MoveTables.SCORE[(int) (src & ROW_MASK)] + MoveTables.SCORE[(int) ((src >>> 16) & ROW_MASK)]
+				+ MoveTables.SCORE[(int) ((src >>> 32) & ROW_MASK)] + MoveTables.SCORE[(int) (src >>> 48)];
+	}
+
+	static long moveRows(long board, char[] table)	// Four table lookups, one per row
+	{
+		return (long) table[(int) (board & ROW_MASK)]
+				| ((long) table[(int) ((board >>> 16) & ROW_MASK)] << 16)
+				| ((long) table[(int) ((board >>> 32) & ROW_MASK)] << 32)
+				| ((long) table[(int) (board >>> 48)] << 48);
+	}
+
+	static int moveDeltas(long board, int dir, int[] out)
+	{
+		// Walks each line in the direction of the move, like shiftLeft(), and records where every tile ends up.
+		// Entries are from | to << 8 | merged << 16 (cell indexes row*4 + col); the tile that slides into another one to
+		// combine with it has the merged bit set.  Tiles that stay where they are are left out.  Returns the entry count.
+		int count = 0;
+		for (int line = 0; line <= 3; line++)
+		{
+			int target = 0, last = 0;	// Next free position along the line, exponent of the tile just before it
+			for (int pos = 0; pos <= 3; pos++)
+			{
+				int from = cellAt(dir, line, pos);
+				int e = (int) ((board >>> (4 * from)) & 0xF);
+				if (e == 0) continue;
+				if (e == last && e < MAX_EXPONENT)
+				{
+					out[count++] = from | (cellAt(dir, line, target - 1) << 8) | (1 << 16);
+					last = 0;
+				}
+				else
+				{
+					int to = cellAt(dir, line, target++);
+					if (to != from) out[count++] = from | (to << 8);
+					last = e;
+				}
+			}
+		}
+		return count;
+	}
+
+	static int cellAt(int dir, int line, int pos)	// Cell index of position 'pos' along a line, counted from the edge the tiles move to
+	{
+		switch (dir)
+		{
+		case LEFT:
+			return line * 4 + pos;
+		case RIGHT:
+			return line * 4 + 3 - pos;
+		case UP:
+			return pos * 4 + line;
+		default:
+			return (3 - pos) * 4 + line;
+		}
+	}
+
+	static long shiftLeft(int row)
+	{
+		// Slides and combines one 16-bit row toward column 0 (the low nibble). Only used to build MoveTables.
+		// Returns the new row in bits 0-15, the merge flags in bits 16-19 and the score gained in bits 32-63.
+		int out = 0, pos = 0, gained = 0, merged = 0;
+		int last = 0;			// Exponent waiting at 'pos' that can still be combined (0 = none)
+
+		for (int cell = 0; cell <= 3; cell++)
+		{
+			int e = (row >>> (4 * cell)) & 0xF;
+			if (e == 0) continue;
+			if (e == last && e < MAX_EXPONENT)	// Two equal tiles meet: combine them (each tile combines at most once)
+			{
+				out = (out & ~(0xF << (4 * pos))) | ((e + 1) << (4 * pos));
+				gained += 1 << (e + 1);
+				merged |= 1 << pos;
+				pos++;
+				last = 0;
+			}
+			else
+			{
+				if (last != 0) pos++;
+				out |= e << (4 * pos);
+				last = e;
+			}
+		}
+		return (out & ROW_MASK) | ((long) merged << 16) | ((long) gained << 32);
+	}
+
+	static long shiftRight(int row)	// Same as shiftLeft(), toward column 3, by reversing the row on the way in and out
+	{
+		long shifted = shiftLeft(reverseRow(row));
+		int merged = (int) ((shifted >>> 16) & 0xF);
+		merged = ((merged & 1) << 3) | ((merged & 2) << 1) | ((merged & 4) >>> 1) | ((merged & 8) >>> 3);
+		return reverseRow((int) (shifted & ROW_MASK)) | ((long) merged << 16) | (shifted & 0xFFFFFFFF00000000L);
+	}
+
+	static int reverseRow(int row)
+	{
+		return ((row & 0xF) << 12) | ((row & 0xF0) << 4) | ((row >>> 4) & 0xF0) | ((row >>> 12) & 0xF);
+	}
+
+	static long transpose(long x)	// Swaps rows and columns of the packed board (cell (col,row) <-> cell (row,col))
+	{
+		long a1 = x & 0xF0F00F0FF0F00F0FL;
+		long a2 = x & 0x0000F0F00000F0F0L;
+		long a3 = x & 0x0F0F00000F0F0000L;
+		long a = a1 | (a2 << 12) | (a3 >>> 12);
+		long b1 = a & 0xFF00FF0000FF00FFL;
+		long b2 = a & 0x00FF00FF00000000L;
+		long b3 = a & 0x00000000FF00FF00L;
+		return b1 | (b2 >>> 24) | (b3 << 24);
+	}
+
+	static int emptyCount(long board)	// Number of empty cells
+	{
+		return Long.bitCount(emptyMask(board));
+	}
+
+	static long emptyMask(long board)	// Lowest bit of every empty cell's nibble set, all other bits clear
+	{
+		long x = board | (board >>> 1);
+		x |= x >>> 2;
+		return ~x & 0x1111111111111111L;
+	}
+
+	static int maxExponent(long board)	// Exponent of the highest tile on the board (11 = 2048)
+	{
+		int max = 0;
+		for (; board != 0; board >>>= 4)
+		{
+			max = Math.max(max, (int) (board & 0xF));
+		}
+		return max;
+	}
+
+	static int getCell(long board, int col, int row)	// Tile value (2, 4, 8...) at a cell, 0 if empty
+	{
+		int e = (int) ((board >>> (4 * (row * 4 + col))) & 0xF);
+		return (e == 0) ? 0 : 1 << e;
+	}
+
+	static long setCell(long board, int col, int row, int value)	// Puts a tile value (2, 4, 8...) into a cell
+	{
+		int shift = 4 * (row * 4 + col);
+		return (board & ~(0xFL << shift)) | ((long) exponent(value) << shift);
+	}
+
+	static int exponent(int value)	// log2 of a tile value, clamped to what fits in a nibble
+	{
+		if (value <= 0) return 0;
+		return Math.min(31 - Integer.numberOfLeadingZeros(value), MAX_EXPONENT);
+	}
+
+	static long pack(int[][] grid)	// Packs a [col][row] grid of tile values (the layout of GridValues[n]) into a board
+	{
+		long board = 0;
+		for (int col = 0; col <= 3; col++)
+		{
+			for (int row = 0; row <= 3; row++)
+			{
+				board |= (long) exponent(grid[col][row]) << (4 * (row * 4 + col));
+			}
+		}
+		return board;
+	}
+
+	static void unpack(long board, int[][] grid)	// Writes a packed board back into a [col][row] grid of tile values
+	{
+		for (int col = 0; col <= 3; col++)
+		{
+			for (int row = 0; row <= 3; row++)
+			{
+				grid[col][row] = getCell(board, col, row);
+			}
+		}
+	}
+}
@@ -0,0 +1,262 @@
+// Headless multi-player server: thousands of 4x4 games in one JVM, played over a line protocol on a local socket
+/* Usage:  java GameServer [-port P] [-bind ADDRESS] [-idle MINUTES] [-undo N]
+ * Listens on 127.0.0.1:2048 unless told otherwise.  Every connection is served on its own virtual thread where the JVM
+ * has them (Java 21 and up); older JVMs fall back on platform threads with small stacks.  Games are GameSession
+ * objects in a SessionManager, not tied to a connection: a player can drop the line and ATTACH again until the game
+ * has been idle for -idle minutes (default 30).  -Dmetrics.port / -Dmetrics.file export the counters (see Metrics).
+ *
+ * Protocol: one command per line, one reply line per command.
+ *     NEW                       start a game              -> STATE
+ *     ATTACH <id>               carry on with a game      -> STATE, or ERR
+ *     UP | DOWN | LEFT | RIGHT  move                      -> STATE (ending in NOMOVE if the board did not change)
+ *     UNDO                                                -> STATE, or ERR
+ *     SAVE                      the game as a token       -> SAVED <base64 of the save file format>
+ *     LOAD <token>              replace the game with it  -> STATE, or ERR
+ *     BOARD                                               -> STATE
+ *     END                       finish and drop the game  -> ENDED <score>
+ *     QUIT                      close the connection      -> BYE (the game is kept for ATTACH)
+ * STATE <id> <board> <score> <moves> [WON] [OVER] [NOMOVE]: id and the packed GameEngine board in hex; WON is sent
+ * once, on the move that makes 2048 (playing on is implied), OVER when no move is left.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class GameServer
+{
+	static final int MAX_LINE = 4096;		// Longer commands close the connection (a save token is a few hundred bytes)
+
+	final SessionManager sessions;
+
+	GameServer(SessionManager sessions)
+	{
+		this.sessions = sessions;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int port = 2048, idleMinutes = 30, undoDepth = 10;
+		InetAddress bind = InetAddress.getLoopbackAddress();
+		for (int n = 0; n + 1 < args.length; n += 2)
+		{
+			switch (args[n])
+			{
+			case "-port":
+				port = Integer.parseInt(args[n + 1]);
+				break;
+			case "-bind":
+				bind = InetAddress.getByName(args[n + 1]);
+				break;
+			case "-idle":
+				idleMinutes = Integer.parseInt(args[n + 1]);
+				break;
+			case "-undo":
+				undoDepth = Integer.parseInt(args[n + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[n]);
+				System.exit(1);
+			}
+		}
+
+		Metrics metrics = new Metrics();
+		SessionManager sessions = new SessionManager(undoDepth, TimeUnit.MINUTES.toNanos(idleMinutes), metrics);
+		metrics.sessions = sessions::size;
+		metrics.startExport();
+		ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(task ->
+		{
+			Thread thread = new Thread(task, "session-expiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sweeper.scheduleAtFixedRate(sessions::expire, 1, 1, TimeUnit.MINUTES);
+
+		GameServer server = new GameServer(sessions);
+		ExecutorService connections = connectionThreads();
+		try (ServerSocket listener = new ServerSocket())
+		{
+			listener.bind(new InetSocketAddress(bind, port), 1024);
+			System.out.println("Serving 2048 on " + listener.getLocalSocketAddress());
+			while (true)
+			{
+				Socket socket = listener.accept();
+				connections.execute(() -> server.serve(socket));
+			}
+		}
+	}
+
+	static ExecutorService connectionThreads()	// A virtual thread per task if this JVM has them, else small platform threads
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e)		// Before Java 21
+		{
+			return Executors.newCachedThreadPool(task ->
+			{
+				Thread thread = new Thread(null, task, "game-connection", 128 * 1024);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	void serve(Socket socket)	// Runs one connection until QUIT, end of input or an I/O error
+	{
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)))
+		{
+			s.setTcpNoDelay(true);
+			GameSession session = null;
+			String line;
+			while ((line = readLine(in)) != null)
+			{
+				StringBuilder reply = new StringBuilder(64);
+				session = command(line.trim(), session, reply);
+				out.write(reply.append('\n').toString());
+				out.flush();
+				if (reply.toString().equals("BYE\n")) break;
+			}
+		}
+		catch (IOException e)	// The player went away; the session stays until it expires
+			{ }
+	}
+
+	static String readLine(BufferedReader in) throws IOException	// Next line, or null at end of input or once it runs past MAX_LINE
+	{
+		StringBuilder line = new StringBuilder(64);		// Never more than MAX_LINE + 1 characters (room for a '\r')
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n')
+		{
+			if (line.length() > MAX_LINE) return null;
+			line.append((char) c);
+		}
+		if (c < 0 && line.length() == 0) return null;
+		if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') line.setLength(line.length() - 1);
+		return (line.length() > MAX_LINE) ? null : line.toString();
+	}
+
+	GameSession command(String line, GameSession session, StringBuilder reply)	// Carries out one command; returns the connection's session
+	{
+		int space = line.indexOf(' ');
+		String verb = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+		String arg = (space < 0) ? "" : line.substring(space + 1).trim();
+		if (session != null) session.lastUsed = System.nanoTime();
+		switch (verb)
+		{
+		case "NEW":
+			session = sessions.create();
+			state(session, reply, false, false);
+			return session;
+		case "ATTACH":
+			GameSession found;
+			try
+			{
+				found = sessions.get(Long.parseUnsignedLong(arg, 16));
+			}
+			catch (NumberFormatException e)
+				{ found = null; }
+			if (found == null) reply.append("ERR no such session");
+			else state(found, reply, false, false);
+			return (found == null) ? session : found;
+		case "QUIT":
+			reply.append("BYE");
+			return session;
+		default:
+			break;
+		}
+		if (session == null)
+		{
+			reply.append("ERR no game: send NEW or ATTACH <id> first");
+			return null;
+		}
+
+		switch (verb)
+		{
+		case "UP":
+		case "DOWN":
+		case "LEFT":
+		case "RIGHT":
+			boolean moved = session.move(direction(verb));
+			if (moved) sessions.metrics.moves.increment();
+			state(session, reply, moved && session.won(), moved == false);
+			break;
+		case "UNDO":
+			if (session.undo())
+			{
+				sessions.metrics.undos.increment();
+				state(session, reply, false, false);
+			}
+			else reply.append("ERR nothing to undo");
+			break;
+		case "SAVE":
+			reply.append("SAVED ").append(Base64.getEncoder().encodeToString(session.save()));
+			sessions.metrics.saves.increment();
+			break;
+		case "LOAD":
+			try
+			{
+				session.load(Base64.getDecoder().decode(arg));
+				sessions.metrics.loads.increment();
+				state(session, reply, false, false);
+			}
+			catch (IOException | IllegalArgumentException e)	// Bad token: the game is left as it was
+				{ reply.append("ERR ").append(e.getMessage()); }
+			break;
+		case "BOARD":
+			state(session, reply, false, false);
+			break;
+		case "END":
+			sessions.end(session);
+			reply.append("ENDED ").append(session.score());
+			return null;
+		default:
+			reply.append("ERR unknown command ").append(verb);
+			break;
+		}
+		return session;
+	}
+
+	static int direction(String verb)
+	{
+		switch (verb)
+		{
+		case "UP":
+			return GameEngine.UP;
+		case "DOWN":
+			return GameEngine.DOWN;
+		case "LEFT":
+			return GameEngine.LEFT;
+		default:
+			return GameEngine.RIGHT;
+		}
+	}
+
+	static void state(GameSession session, StringBuilder reply, boolean won, boolean noMove)	// won: only in the reply to the winning move
+	{
+		reply.append("STATE ").append(Long.toHexString(session.id)).append(' ');
+		String board = Long.toHexString(session.board());
+		for (int n = board.length(); n < 16; n++) reply.append('0');
+		reply.append(board).append(' ').append(session.score()).append(' ').append(session.moves());
+		if (won) reply.append(" WON");
+		if (session.over()) reply.append(" OVER");
+		if (noMove) reply.append(" NOMOVE");
+	}
+}
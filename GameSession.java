@@ -0,0 +1,66 @@
+// One remote player's 4x4 game, held off the FX thread (see GameServer)
+/* The game is a GameState, so moves, spawns, undo and saves follow the same rules as the window and the terminal.  At
+ * 4x4 that is a GridEngine over one packed GameEngine long, its own seeded SpawnGenerator and a small UndoLog: well
+ * under a kilobyte, and nothing is allocated per move.  Every method is synchronized, so one session can be driven
+ * from any thread (a player that reconnects is served by a new one).
+ */
+
+import java.io.IOException;
+
+final class GameSession
+{
+	final long id;
+	private final GameState state;
+	private boolean won;		// Set by the move that made the winning tile; cleared by the next move, undo or load
+	volatile long lastUsed;		// System.nanoTime() of the last command, for idle expiry
+
+	GameSession(long id, long seed, int undoDepth)
+	{
+		this.id = id;
+		this.state = new GameState(4, undoDepth, new SpawnGenerator(seed));
+		state.start();
+		this.lastUsed = System.nanoTime();
+	}
+
+	synchronized boolean move(int dir)	// Moves and adds a tile; false if the board does not change in that direction
+	{
+		if (state.move(dir) == false) return false;
+		won = state.takeWin();
+		if (won) state.xplay = 1;	// Reported once, like the win window
+		return true;
+	}
+
+	synchronized boolean undo()
+	{
+		if (state.undo() == false) return false;
+		won = false;
+		return true;
+	}
+
+	synchronized boolean won()		// The last move made the winning tile (for the first time in this game)
+	{
+		return won;
+	}
+
+	synchronized boolean over()
+	{
+		return state.engine.isGameOver();
+	}
+
+	synchronized long board()	{ return state.engine.board[0]; }
+	synchronized int score()	{ return state.engine.score; }
+	synchronized int moves()	{ return state.engine.moves; }
+
+	synchronized byte[] save()	// The whole game, undo history included, in the save file format
+	{
+		return SaveFormat.encode(state.save());
+	}
+
+	synchronized void load(byte[] data) throws IOException
+	{
+		SaveFormat.SavedGame game = SaveFormat.decode(data);
+		if (game.size != 4) throw new IOException("Only 4x4 games can be played here, not " + game.size + "x" + game.size);
+		state.load(game);
+		won = false;
+	}
+}
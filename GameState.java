@@ -0,0 +1,100 @@
+// One game of 2048 without any display: the board, score and moves, the undo history, the spawns and the win
+/* The rules every front end plays by - what a move backs up, which tiles it adds, what undo puts back and what a save
+ * holds - live here, once.  TwentyFortyEight draws the engine's board in a window, Terminal prints it, and GameSession
+ * (GameServer) hosts one per remote player; none of them keep a board, score or history of their own.
+ *
+ * move() is backUp(), a slide of the engine and spawn(), in that order; the window calls the three itself so it can
+ * time the slide and the spawn separately.  Nothing here is thread-safe: each front end keeps a GameState on one
+ * thread (the FX thread) or behind its own lock (GameSession).
+ */
+
+final class GameState
+{
+	final int size;
+	final GridEngine engine;		// Board, score, move count and the board summary (engine.won: see takeWin())
+	final UndoLog history;			// Positions before each move, for undo
+	SpawnGenerator spawns;			// Tiles added after each move (the window starts a new seed for each recording)
+	int xplay = 0;					// 1 once the player has seen the win and chosen to keep playing
+
+	GameState(int size, int undoDepth, SpawnGenerator spawns)
+	{
+		this.size = size;
+		this.engine = new GridEngine(size);
+		this.history = new UndoLog(undoDepth, GridEngine.words(size));
+		this.spawns = spawns;
+	}
+
+	static GameState fromProperties(SpawnGenerator spawns)	// Board size from -Dboard.size (3..8, default 4), undo depth from -Dundo.depth
+	{
+		int size = Math.max(GridEngine.MIN_SIZE, Math.min(GridEngine.MAX_SIZE, Integer.getInteger("board.size", 4)));
+		return new GameState(size, Integer.getInteger("undo.depth", 10), spawns);
+	}
+
+	void start()			// New game: the two starting tiles of the spawns' seed, nothing to undo
+	{
+		engine.start(spawns);
+		history.clear();
+		xplay = 0;
+	}
+
+	boolean move(int dir)	// Backs up, moves and adds a tile; false (and nothing changes) if the board does not move that way
+	{
+		if (engine.canMove(dir) == false) return false;
+		backUp();
+		engine.move(dir);
+		spawn();
+		return true;
+	}
+
+	void backUp()			// Saves the position before a move (O(1): the oldest entry is simply overwritten)
+	{
+		history.push(engine.board, engine.score, engine.moves);
+	}
+
+	boolean spawn()			// Adds the next tile of the spawns; false if the board is full
+	{
+		return engine.spawn(spawns);
+	}
+
+	boolean undo()			// Back to the position before the last move; false if there is none
+	{
+		if (history.isEmpty()) return false;
+		history.board(0, engine.board);
+		engine.score = history.score(0);
+		engine.moves = history.moves(0);
+		history.pop();
+		engine.summarize();
+		engine.won = false;
+		return true;
+	}
+
+	boolean takeWin()		// True once, after the move that makes the winning tile, unless play already went on past a win
+	{
+		boolean won = engine.won && xplay == 0;
+		engine.won = false;
+		return won;
+	}
+
+	SaveFormat.SavedGame save()		// Snapshot of the game, undo history included
+	{
+		SaveFormat.SavedGame game = new SaveFormat.SavedGame();
+		game.size = size;
+		game.board = engine.board.clone();
+		game.score = engine.score;
+		game.moves = engine.moves;
+		game.xplay = xplay;
+		game.setUndo(history);
+		return game;
+	}
+
+	void load(SaveFormat.SavedGame game)	// Replaces the game with a saved one of the same size (the caller checks game.size)
+	{
+		System.arraycopy(game.board, 0, engine.board, 0, engine.words);
+		engine.score = game.score;
+		engine.moves = game.moves;
+		engine.summarize();
+		engine.won = false;		// A saved game that already has the winning tile was won before it was saved
+		xplay = game.xplay;
+		game.restoreUndo(history);
+	}
+}
@@ -0,0 +1,457 @@
+// Game engine for any board size from 3x3 to 8x8, used by the JavaFX front end (the 4x4 case is GameEngine itself)
+/* A board is a long[] of words(size) words:
+ *   3x3, 4x4  - one word in GameEngine's packed layout (nibble row*4 + col); a 3x3 board leaves column 3 and row 3
+ *               empty, so it moves with the same row tables (MoveTables.LEFT, RIGHT3) and GameEngine.transpose()
+ *   5x5..8x8  - one word per row, one byte per cell (byte 'col' of word 'row'), so tiles can go past 32768; columns
+ *               are moved by transposing the rows as an 8x8 byte matrix (three shift-and-mask rounds) and moving rows.
+ *               Tiles stop combining at 2^MAX_WIDE_EXPONENT, as they do at 2^15 on 4x4: a tile value has to fit the
+ *               int grids, and the score too, which even a full 8x8 board of capped tiles keeps below 2^31
+ * Every size moves a whole row word at a time; nothing walks the board cell by cell except moveDeltas(), which only
+ * runs when the display asks for animation data.  Cells are numbered row*size + col in lastMerged, lastSpawn and the
+ * deltas.
+ *
+ * The engine also keeps a summary of its board - empty cells, highest tile, which directions can move - up to date as
+ * part of every move() and spawn(), so canMove(), isGameOver() and the win check are field reads.  A move adds one
+ * empty cell per merge and can only raise the highest tile on a merged cell; the movable flags are recomputed from
+ * whole rows (row tables for 3x3 and 4x4, byte-lane compares for wider boards).  Anything that sets the board directly
+ * (undo, loading, the test keys) calls summarize().
+ */
+
+public class GridEngine
+{
+	static final int MIN_SIZE = 3, MAX_SIZE = 8;
+	static final int MAX_WIDE_EXPONENT = 20;			// Highest tile from 5x5 up, 2^20: 64 cells * 19 merges deep * 2^20 < 2^31
+	static final long CELLS3 = 0x0000011101110111L;		// Lowest bit of each 3x3 cell's nibble
+	static final long LANE_LOW = 0x0101010101010101L;		// Lowest bit of each byte
+
+	final int size;			// Cells per side
+	final int words;		// Longs per board
+	long[] board;			// Current board (see above)
+	int score = 0;
+	int moves = 0;
+	long lastMerged = 0;	// Bit (row*size + col) is set for each cell that was combined by the last move()
+	int lastSpawn = -1;		// Cell (row*size + col) of the tile added by the last spawn()
+	int[] deltas = null;	// If set, move() lists every tile that moved: from | to << 8 | merged << 16
+	int deltaCount = 0;
+	int empty = 0;			// Board summary: empty cells,
+	int maxExponent = 0;	//   exponent of the highest tile,
+	int movable = 0;		//   bit 'dir' set for each direction that changes the board
+	boolean won = false;	// Set when the winning tile first appears; stays set until the display clears it
+
+	private final GameEngine packed = new GameEngine();	// Does all the work for 4x4
+	private long[] next;			// Result of the last slide()
+	private final long[] matrix;		// Transpose workspace for wide boards (null up to 4x4)
+	private int gained;				// Score and merge flags of the last slide()
+	private long merged;
+
+	GridEngine(int size)
+	{
+		if (size < MIN_SIZE || size > MAX_SIZE) throw new IllegalArgumentException("Board size " + size + " is not 3 to 8");
+		this.size = size;
+		this.words = words(size);
+		board = new long[words];
+		next = new long[words];
+		matrix = (size > 4) ? new long[8] : null;
+	}
+
+	static int words(int size)
+	{
+		return (size <= 4) ? 1 : size;
+	}
+
+	static int exponentCap(int size)	// Highest tile exponent of a board size; equal tiles at the cap do not combine
+	{
+		return (size > 4) ? MAX_WIDE_EXPONENT : GameEngine.MAX_EXPONENT;
+	}
+
+	static int winExponent(int size)	// Tile that wins: 2048, or 512 on 3x3 where 2048 cannot be reached
+	{
+		return (size == 3) ? 9 : 11;
+	}
+
+	void reset()
+	{
+		java.util.Arrays.fill(board, 0);
+		score = 0;
+		moves = 0;
+		lastMerged = 0;
+		lastSpawn = -1;
+		empty = size * size;
+		maxExponent = 0;
+		movable = 0;
+		won = false;
+	}
+
+	void start(SpawnGenerator spawns)	// New game: empty board plus the two starting tiles of the generator's seed
+	{
+		reset();
+		SpawnGenerator tiles = spawns.startingTiles();
+		spawn(tiles);
+		spawn(tiles);
+	}
+
+	boolean move(int dir)	// Moves the board, updating score, move counter and merge flags. Returns false if nothing moved
+	{
+		if (size == 4)
+		{
+			packed.board = board[0];
+			packed.score = score;
+			packed.moves = moves;
+			packed.deltas = deltas;
+			if (packed.move(dir) == false) return false;
+			board[0] = packed.board;
+			score = packed.score;
+			moves = packed.moves;
+			lastMerged = packed.lastMerged;
+			deltaCount = packed.deltaCount;
+		}
+		else
+		{
+			if (slide(dir) == false) return false;
+			if (deltas != null) deltaCount = moveDeltas(size, board, dir, deltas);
+			long[] old = board;
+			board = next;
+			next = old;
+			score += gained;
+			moves++;
+			lastMerged = merged;
+		}
+		int before = maxExponent;
+		empty += Long.bitCount(lastMerged);		// Each merge frees one cell
+		for (long m = lastMerged; m != 0; m &= m - 1)	// and only a merged cell can hold a new highest tile
+		{
+			int cell = Long.numberOfTrailingZeros(m);
+			maxExponent = Math.max(maxExponent, exponentAt(size, board, cell % size, cell / size));
+		}
+		won |= (before < winExponent(size) && maxExponent >= winExponent(size));
+		movable = movable();
+		return true;
+	}
+
+	boolean canMove(int dir)
+	{
+		return (movable & (1 << dir)) != 0;
+	}
+
+	boolean isGameOver()	// No direction changes the board
+	{
+		return movable == 0;
+	}
+
+	void summarize()	// Recomputes the summary after the board was set directly (the win flag is set if this adds the winning tile)
+	{
+		int before = maxExponent;
+		maxExponent = maxExponent(size, board);
+		if (size == 4) empty = GameEngine.emptyCount(board[0]);
+		else if (size == 3) empty = Long.bitCount(GameEngine.emptyMask(board[0]) & CELLS3);
+		else
+		{
+			empty = 0;
+			for (long row : board)
+			{
+				empty += size - Long.bitCount(occupied(row));
+			}
+		}
+		won |= (before < winExponent(size) && maxExponent >= winExponent(size));
+		movable = movable();
+	}
+
+	private int movable()	// Bit 'dir' set for each direction that changes the board, from whole rows at a time
+	{
+		if (size == 4) return GameEngine.movable(board[0]);
+		int h = 0, v = 0;
+		if (size == 3)
+		{
+			long t = GameEngine.transpose(board[0]);
+			for (int line = 0; line < 3; line++)
+			{
+				h |= rowMoves3((int) ((board[0] >>> (16 * line)) & 0xFFF));
+				v |= rowMoves3((int) ((t >>> (16 * line)) & 0xFFF));
+			}
+		}
+		else
+		{
+			System.arraycopy(board, 0, matrix, 0, size);
+			transpose(matrix);
+			for (int line = 0; line < size; line++)
+			{
+				h |= rowMoves(board[line]);
+				v |= rowMoves(matrix[line]);
+			}
+		}
+		return ((h & 1) << GameEngine.LEFT) | ((h >>> 1) << GameEngine.RIGHT) | ((v & 1) << GameEngine.UP) | ((v >>> 1) << GameEngine.DOWN);
+	}
+
+	private static int rowMoves3(int row)	// Bit 0: a 3-cell row changes when slid toward column 0, bit 1: toward column 2
+	{
+		return (MoveTables.LEFT[row] != row ? 1 : 0) | (MoveTables.RIGHT3[row] != row ? 2 : 0);
+	}
+
+	private int rowMoves(long row)	// Same for a row of byte cells: a gap behind a tile, or two equal tiles side by side below the cap
+	{
+		long tiles = occupied(row);
+		long free = ~tiles & ((1L << size) - 1);
+		int moves = ((tiles & (tiles + 1)) != 0 ? 1 : 0) | ((free & (free + 1)) != 0 ? 2 : 0);	// Tiles not all packed at one end
+		long same = row ^ (row >>> 8);		// Byte i is zero where cell i equals cell i+1
+		same |= same >>> 4;
+		same |= same >>> 2;
+		same |= same >>> 1;
+		long uncapped = row ^ (MAX_WIDE_EXPONENT * LANE_LOW);	// Byte i is zero where cell i is at the cap
+		uncapped |= uncapped >>> 4;
+		uncapped |= uncapped >>> 2;
+		uncapped |= uncapped >>> 1;
+		long pairs = LANE_LOW & ((1L << (8 * (size - 1))) - 1);
+		long apart = (same | ~uncapped) & pairs;	// Lowest bit of byte i set where cells i and i+1 cannot combine
+		if ((tiles & ~(apart * 0x0102040810204080L >>> 56) & ((1L << (size - 1)) - 1)) != 0) moves = 3;
+		return moves;
+	}
+
+	private static long occupied(long row)	// Bit col is set for each cell of a byte row that holds a tile
+	{
+		long x = row | (row >>> 4);
+		x |= x >>> 2;
+		x |= x >>> 1;
+		return ((x & LANE_LOW) * 0x0102040810204080L) >>> 56;	// Gathers the byte flags into 8 bits
+	}
+
+	boolean spawn(SpawnGenerator spawns)	// Adds a random tile. Returns false if the board is full
+	{
+		if (size == 4)
+		{
+			packed.board = board[0];
+			if (packed.spawn(spawns) == false) return false;
+			board[0] = packed.board;
+			lastSpawn = packed.lastSpawn;
+			added((int) ((board[0] >>> (4 * lastSpawn)) & 0xF));
+			return true;
+		}
+		if (size == 3)
+		{
+			int spawn = spawns.choose(GameEngine.emptyMask(board[0]) & CELLS3);
+			if (spawn < 0) return false;
+			int nibble = (spawn & 0xFF) >>> 2;
+			board[0] |= (long) (spawn >>> 8) << (4 * nibble);
+			lastSpawn = (nibble / 4) * 3 + nibble % 4;
+			added(spawn >>> 8);
+			return true;
+		}
+		long cells = 0;		// Bit row*8 + col for every empty cell
+		long full = (1L << size) - 1;
+		for (int row = 0; row < size; row++)
+		{
+			cells |= (~occupied(board[row]) & full) << (8 * row);
+		}
+		int spawn = spawns.choose(cells);
+		if (spawn < 0) return false;
+		int bit = spawn & 0xFF;
+		board[bit >>> 3] |= (long) (spawn >>> 8) << (8 * (bit & 7));
+		lastSpawn = (bit >>> 3) * size + (bit & 7);
+		added(spawn >>> 8);
+		return true;
+	}
+
+	private void added(int exponent)	// Summary after a spawn: one cell fewer, and the new tile may block the last move
+	{
+		empty--;
+		maxExponent = Math.max(maxExponent, exponent);
+		movable = movable();
+	}
+
+	private boolean slide(int dir)	// Moves the board into 'next' (and sets gained and merged); true if anything moved
+	{
+		boolean vertical = (dir == GameEngine.UP || dir == GameEngine.DOWN);
+		boolean towardZero = (dir == GameEngine.UP || dir == GameEngine.LEFT);
+		gained = 0;
+		merged = 0;
+		if (size == 3)
+		{
+			char[] table = towardZero ? MoveTables.LEFT : MoveTables.RIGHT3;
+			byte[] flags = towardZero ? MoveTables.MERGED_LEFT : MoveTables.MERGED_RIGHT3;
+			long src = vertical ? GameEngine.transpose(board[0]) : board[0];
+			long result = 0;
+			for (int line = 0; line < 3; line++)
+			{
+				int row = (int) ((src >>> (16 * line)) & 0xFFF);
+				result |= (long) table[row] << (16 * line);
+				gained += MoveTables.SCORE[row];
+				for (int pos = 0, mask = flags[row]; mask != 0; pos++, mask >>>= 1)
+				{
+					if ((mask & 1) != 0) merged |= 1L << (vertical ? pos * 3 + line : line * 3 + pos);
+				}
+			}
+			next[0] = vertical ? GameEngine.transpose(result) : result;
+			return next[0] != board[0];
+		}
+
+		long[] rows = board;
+		if (vertical)
+		{
+			System.arraycopy(board, 0, matrix, 0, size);
+			transpose(matrix);
+			rows = matrix;
+		}
+		boolean moved = false;
+		for (int line = 0; line < size; line++)
+		{
+			long row = slideRow(rows[line], towardZero, line, vertical);
+			moved |= (row != rows[line]);
+			if (vertical) matrix[line] = row;
+			else next[line] = row;
+		}
+		if (vertical)
+		{
+			transpose(matrix);
+			System.arraycopy(matrix, 0, next, 0, size);
+		}
+		return moved;
+	}
+
+	private long slideRow(long row, boolean towardZero, int line, boolean vertical)	// One row of byte cells, slid and combined
+	{
+		long out = 0;
+		int target = 0, last = 0;	// Next free position counted from the edge the tiles move to, exponent of the tile before it
+		for (int pos = 0; pos < size; pos++)
+		{
+			int col = towardZero ? pos : size - 1 - pos;
+			int e = (int) ((row >>> (8 * col)) & 0xFF);
+			if (e == 0) continue;
+			if (e == last && e < MAX_WIDE_EXPONENT)
+			{
+				int at = towardZero ? target - 1 : size - target;
+				out += 1L << (8 * at);
+				gained += 1 << (e + 1);
+				merged |= 1L << (vertical ? at * size + line : line * size + at);
+				last = 0;
+			}
+			else
+			{
+				out |= (long) e << (8 * (towardZero ? target : size - 1 - target));
+				target++;
+				last = e;
+			}
+		}
+		return out;
+	}
+
+	static void transpose(long[] m)	// Transposes 8 rows of 8 byte cells in place (2x2, then 4x4, then 8x8 blocks)
+	{
+		for (int r = 0; r < 8; r += 2)
+		{
+			long t = ((m[r] >>> 8) ^ m[r + 1]) & 0x00FF00FF00FF00FFL;
+			m[r] ^= t << 8;
+			m[r + 1] ^= t;
+		}
+		for (int r = 0; r < 8; r += (r % 4 == 1) ? 3 : 1)
+		{
+			long t = ((m[r] >>> 16) ^ m[r + 2]) & 0x0000FFFF0000FFFFL;
+			m[r] ^= t << 16;
+			m[r + 2] ^= t;
+		}
+		for (int r = 0; r < 4; r++)
+		{
+			long t = ((m[r] >>> 32) ^ m[r + 4]) & 0x00000000FFFFFFFFL;
+			m[r] ^= t << 32;
+			m[r + 4] ^= t;
+		}
+	}
+
+	static int moveDeltas(int size, long[] board, int dir, int[] out)	// Same as GameEngine.moveDeltas(), for any size
+	{
+		int count = 0;
+		for (int line = 0; line < size; line++)
+		{
+			int target = 0, last = 0;
+			for (int pos = 0; pos < size; pos++)
+			{
+				int from = cellAt(size, dir, line, pos);
+				int e = exponentAt(size, board, from % size, from / size);
+				if (e == 0) continue;
+				if (e == last && e < exponentCap(size))
+				{
+					out[count++] = from | (cellAt(size, dir, line, target - 1) << 8) | (1 << 16);
+					last = 0;
+				}
+				else
+				{
+					int to = cellAt(size, dir, line, target++);
+					if (to != from) out[count++] = from | (to << 8);
+					last = e;
+				}
+			}
+		}
+		return count;
+	}
+
+	static int cellAt(int size, int dir, int line, int pos)
+	{
+		switch (dir)
+		{
+		case GameEngine.LEFT:
+			return line * size + pos;
+		case GameEngine.RIGHT:
+			return line * size + size - 1 - pos;
+		case GameEngine.UP:
+			return pos * size + line;
+		default:
+			return (size - 1 - pos) * size + line;
+		}
+	}
+
+	static int maxExponent(int size, long[] board)	// Exponent of the highest tile on the board
+	{
+		if (size <= 4) return GameEngine.maxExponent(board[0]);
+		int max = 0;
+		for (long row : board)
+		{
+			for (; row != 0; row >>>= 8)
+			{
+				max = Math.max(max, (int) (row & 0xFF));
+			}
+		}
+		return max;
+	}
+
+	static int exponentAt(int size, long[] board, int col, int row)
+	{
+		if (size <= 4) return (int) ((board[0] >>> (4 * (row * 4 + col))) & 0xF);
+		return (int) ((board[row] >>> (8 * col)) & 0xFF);
+	}
+
+	static void pack(int size, int[][] grid, long[] board)	// Packs a [col][row] grid of tile values (GridValues) into a board
+	{
+		if (size == 4)
+		{
+			board[0] = GameEngine.pack(grid);
+			return;
+		}
+		java.util.Arrays.fill(board, 0);
+		for (int col = 0; col < size; col++)
+		{
+			for (int row = 0; row < size; row++)
+			{
+				int value = grid[col][row];
+				int e = (value <= 0) ? 0 : 31 - Integer.numberOfLeadingZeros(value);
+				e = Math.min(e, exponentCap(size));
+				if (size == 3) board[0] |= (long) e << (4 * (row * 4 + col));
+				else board[row] |= (long) e << (8 * col);
+			}
+		}
+	}
+
+	static void unpack(int size, long[] board, int[][] grid)	// Writes a board back into a [col][row] grid of tile values
+	{
+		if (size == 4)
+		{
+			GameEngine.unpack(board[0], grid);
+			return;
+		}
+		for (int col = 0; col < size; col++)
+		{
+			for (int row = 0; row < size; row++)
+			{
+				int e = exponentAt(size, board, col, row);
+				grid[col][row] = (e == 0) ? 0 : 1 << e;
+			}
+		}
+	}
+}
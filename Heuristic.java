@@ -0,0 +1,110 @@
+// Position score for automated play: higher means a better board for the player to be on
+/* Leaves of the Expectimax search and the one-move 'heuristic' policy are scored by a Heuristic.  A heuristic must
+ * give all 8 rotations and reflections of a board the same value, because EvaluationCache stores them as one entry.
+ * RowHeuristic is the standard one: a weighted sum of per-row features read from lookup tables.
+ *
+ * Weights are a small set of named numbers.  They can be written to and read from a properties file (name=value per
+ * line), which is what Tuner produces; -Dheuristic.weights=FILE makes such a file the default everywhere.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+public interface Heuristic
+{
+	float evaluate(long board);
+
+	static Heuristic standard()		// RowHeuristic with the default weights (or the -Dheuristic.weights file)
+	{
+		return RowHeuristic.DEFAULT;
+	}
+
+	final class Weights
+	{
+		// Index of each weight in values[]
+		static final int LOST_PENALTY = 0;			// Added per line, so any position beats a lost one
+		static final int MONOTONICITY_POWER = 1, MONOTONICITY_WEIGHT = 2;	// Penalty for lines that rise and fall
+		static final int SUM_POWER = 3, SUM_WEIGHT = 4;		// Penalty for many big tiles at once
+		static final int MERGES_WEIGHT = 5;			// Bonus per pair of equal tiles that can combine
+		static final int EMPTY_WEIGHT = 6;			// Bonus per empty cell
+		static final int SMOOTHNESS_WEIGHT = 7;		// Penalty per step between neighbouring tiles' exponents
+		static final int CORNER_WEIGHT = 8;			// Bonus when an edge line's biggest tile sits in a corner
+
+		static final String[] NAMES = { "lost.penalty", "monotonicity.power", "monotonicity.weight", "sum.power",
+				"sum.weight", "merges.weight", "empty.weight", "smoothness.weight", "corner.weight" };
+		static final float[] DEFAULTS = { 200000f, 4f, 47f, 3.5f, 11f, 700f, 270f, 0f, 0f };
+
+		final float[] values;
+
+		Weights()
+		{
+			values = DEFAULTS.clone();
+		}
+
+		Weights(float[] values)
+		{
+			if (values.length != NAMES.length) throw new IllegalArgumentException("Expected " + NAMES.length + " weights");
+			this.values = values.clone();
+		}
+
+		float get(int n)
+		{
+			return values[n];
+		}
+
+		static Weights fromProperty()	// The -Dheuristic.weights file if there is one, otherwise the defaults
+		{
+			String file = System.getProperty("heuristic.weights");
+			if (file == null) return new Weights();
+			try
+			{
+				return load(Paths.get(file));
+			}
+			catch (IOException | RuntimeException e)	// Bad file: fall back on the defaults rather than not starting
+			{
+				System.err.println("Cannot read heuristic weights " + file + ": " + e);
+				return new Weights();
+			}
+		}
+
+		static Weights load(Path file) throws IOException	// Names missing from the file keep their default values
+		{
+			Properties props = new Properties();
+			try (Reader in = Files.newBufferedReader(file))
+			{
+				props.load(in);
+			}
+			float[] values = DEFAULTS.clone();
+			for (int n = 0; n < NAMES.length; n++)
+			{
+				String value = props.getProperty(NAMES[n]);
+				if (value != null) values[n] = Float.parseFloat(value.trim());
+			}
+			return new Weights(values);
+		}
+
+		void save(Path file, String comment) throws IOException
+		{
+			try (Writer out = Files.newBufferedWriter(file))
+			{
+				out.write("# " + comment + System.lineSeparator());
+				out.write(toString());
+			}
+		}
+
+		@Override public String toString()	// One name=value line per weight
+		{
+			StringBuilder text = new StringBuilder();
+			for (int n = 0; n < NAMES.length; n++)
+			{
+				text.append(NAMES[n]).append('=').append(values[n]).append(System.lineSeparator());
+			}
+			return text.toString();
+		}
+	}
+}
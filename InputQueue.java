@@ -0,0 +1,88 @@
+// Directions typed (or scripted) faster than the board can show them, waiting to be played in one batch per frame
+/* Arrow keys only add to this queue; the game drains it once per pulse, plays every queued move through the engine
+ * and redraws once (see TwentyFortyEight.FlushMoves), so a held key or a macro runs at engine speed instead of one
+ * full redraw per key.  What happens to a direction that arrives while others are waiting is the Policy:
+ *   ALL        every direction is played, in order, so a held key or a macro moves as fast as it repeats (the default)
+ *   COALESCE   a direction equal to the last one waiting is dropped, so the repeats of a held key collapse into one
+ *              move per frame
+ *   LATEST     only the newest direction waits; anything older is dropped
+ * Set with -Dinput.policy=all|coalesce|latest (anything else is warned about and ignored).  The queue holds at most -Dinput.capacity directions (default 64);
+ * beyond that new ones are dropped, so a stalled display cannot build up a backlog of stale moves.
+ */
+
+import java.util.Locale;
+
+final class InputQueue
+{
+	enum Policy { ALL, COALESCE, LATEST }
+
+	final Policy policy;
+	private final byte[] dirs;	// Ring buffer of GameEngine directions
+	private int head = 0;		// Slot of the oldest direction
+	private int size = 0;
+	long dropped = 0;			// Directions the policy or the capacity threw away
+
+	InputQueue(Policy policy, int capacity)
+	{
+		this.policy = policy;
+		dirs = new byte[Math.max(1, capacity)];
+	}
+
+	static InputQueue fromProperties()
+	{
+		String name = System.getProperty("input.policy", "all");
+		Policy policy = Policy.ALL;
+		try
+		{
+			policy = Policy.valueOf(name.toUpperCase(Locale.ROOT));
+		}
+		catch (IllegalArgumentException e)	// A typo must not stop the game from starting
+			{ System.err.println("Unknown input.policy " + name + " (all, coalesce, latest): using all"); }
+		return new InputQueue(policy, Integer.getInteger("input.capacity", 64));
+	}
+
+	void offer(int dir)
+	{
+		switch (policy)
+		{
+		case LATEST:
+			dropped += size;
+			size = 0;
+			break;
+		case COALESCE:
+			if (size > 0 && dirs[(head + size - 1) % dirs.length] == dir)
+			{
+				dropped++;
+				return;
+			}
+			break;
+		default:
+			break;
+		}
+		if (size == dirs.length)
+		{
+			dropped++;
+			return;
+		}
+		dirs[(head + size) % dirs.length] = (byte) dir;
+		size++;
+	}
+
+	int poll()		// Oldest waiting direction, or -1 if there is none
+	{
+		if (size == 0) return -1;
+		int dir = dirs[head];
+		head = (head + 1) % dirs.length;
+		size--;
+		return dir;
+	}
+
+	boolean isEmpty()	{ return size == 0; }
+	int size()			{ return size; }
+
+	void clear()
+	{
+		dropped += size;
+		size = 0;
+	}
+}
@@ -0,0 +1,217 @@
+// Timing of the game's hot path: key handling, moves, spawns, redraws, win/lose checks and file I/O
+/* Each section is timed with two System.nanoTime() calls around it:
+ *     long start = Instrumentation.begin();
+ *     ...
+ *     Instrumentation.end(Instrumentation.Probe.MOVE, start);
+ * and recorded in that probe's Histogram: log-linear buckets (32 per power of two, so about 3% resolution) of atomic
+ * counters, fixed in size, so recording never allocates or locks and the file writer thread can record alongside
+ * the FX thread.  The performance overlay (Alt+P) shows p50/p99/max of every probe, plus frame time, moves/sec and
+ * heap allocated per move.
+ *
+ * Every section is also a JFR event (TwentyFortyEight.HotPath, with the section name and its time), so a kiosk can
+ * be profiled with nothing more than -XX:StartFlightRecording=filename=2048.jfr.  While no recording is running the
+ * event is never committed and costs nothing.  Loading the event class sets up JFR, which takes a third of a second on
+ * a slow machine, so that waits for warmUp() (the game calls it once its window is up); sections timed before then are
+ * only recorded in their histograms.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+public class Instrumentation
+{
+	enum Probe
+	{
+		INPUT("key handler"),			// The whole setOnKeyPressed handler
+		MOVE("MoveX"),
+		GEN_TILE("gen_tile"),
+		DISPLAY("UpdateDisplay"),
+		WIN_LOSE("WinLoseCheck"),
+		FILE_IO("file I/O"),			// Autosave batches (on the writer thread), loads
+		KEY_TO_FRAME("key to frame"),	// Key press to the end of the next layout pulse
+		FRAME("frame");					// Time between frames while the overlay is shown
+
+		final String label;
+		final Histogram histogram = new Histogram();
+
+		Probe(String label)
+		{
+			this.label = label;
+		}
+	}
+
+	static final Histogram ALLOCATION = new Histogram();	// Bytes allocated on the FX thread by each move played
+
+	private static volatile boolean events = false;		// Set by warmUp() once HotPathEvent is loaded
+
+	private static class Allocation		// Loaded on first use: the management classes take tens of milliseconds
+	{
+		static final com.sun.management.ThreadMXBean THREADS = threads();
+	}
+
+	static long begin()
+	{
+		return System.nanoTime();
+	}
+
+	static void end(Probe probe, long start)
+	{
+		long nanos = System.nanoTime() - start;
+		probe.histogram.record(nanos);
+		if (events == false) return;
+		HotPathEvent event = new HotPathEvent();
+		if (event.isEnabled())
+		{
+			event.section = probe.label;
+			event.time = nanos;
+			event.commit();
+		}
+	}
+
+	static void warmUp()	// Loads the allocation counter and the JFR event ahead of their first use (call off the FX thread)
+	{
+		allocated();
+		new HotPathEvent();
+		events = true;
+	}
+
+	static long allocated()		// Bytes allocated so far by the calling thread (0 if the JVM cannot tell)
+	{
+		return (Allocation.THREADS == null) ? 0 : Allocation.THREADS.getCurrentThreadAllocatedBytes();
+	}
+
+	static void reset()
+	{
+		for (Probe probe : Probe.values())
+		{
+			probe.histogram.reset();
+		}
+		ALLOCATION.reset();
+	}
+
+	static String report()		// One line per probe that has recorded anything, times in microseconds
+	{
+		StringBuilder text = new StringBuilder(String.format("%-14s %7s %8s %8s %8s%n", "section (us)", "count", "p50", "p99", "max"));
+		for (Probe probe : Probe.values())
+		{
+			Histogram h = probe.histogram;
+			if (h.count() == 0) continue;
+			text.append(String.format("%-14s %7d %8.1f %8.1f %8.1f%n", probe.label, h.count(), h.percentile(0.50) / 1e3,
+					h.percentile(0.99) / 1e3, h.max() / 1e3));
+		}
+		return text.toString();
+	}
+
+	private static com.sun.management.ThreadMXBean threads()
+	{
+		try
+		{
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			return threads.isThreadAllocatedMemorySupported() ? threads : null;
+		}
+		catch (ClassCastException | UnsupportedOperationException e)	// Not a HotSpot JVM: allocation is not shown
+			{ return null; }
+	}
+
+	static class Histogram
+	{
+		static final int LINEAR = 64;		// Values below this have a bucket each
+		static final int SUB_BITS = 5;		// Then 2^SUB_BITS buckets per power of two
+		static final int BUCKETS = LINEAR + (63 - 6) * (1 << SUB_BITS);
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong total = new AtomicLong(), sum = new AtomicLong(), highest = new AtomicLong();
+		private final AtomicLong allCount = new AtomicLong(), allSum = new AtomicLong();	// Since start: reset() leaves these alone
+
+		void record(long value)
+		{
+			if (value < 0) value = 0;
+			counts.incrementAndGet(bucket(value));
+			total.incrementAndGet();
+			sum.addAndGet(value);
+			allCount.incrementAndGet();
+			allSum.addAndGet(value);
+			long max = highest.get();
+			while (value > max && highest.compareAndSet(max, value) == false) max = highest.get();
+		}
+
+		long count()
+		{
+			return total.get();
+		}
+
+		long sum()
+		{
+			return sum.get();
+		}
+
+		long max()
+		{
+			return highest.get();
+		}
+
+		long totalCount()	// Values recorded since start, for counters that must never go down (Metrics)
+		{
+			return allCount.get();
+		}
+
+		long totalSum()
+		{
+			return allSum.get();
+		}
+
+		long percentile(double p)	// Lower edge of the bucket holding the p-th percentile value (0 if nothing was recorded)
+		{
+			long target = (long) Math.ceil(p * count()), seen = 0;
+			for (int n = 0; n < BUCKETS; n++)
+			{
+				seen += counts.get(n);
+				if (seen >= target && seen > 0) return Math.min(lowest(n), max());
+			}
+			return max();
+		}
+
+		void reset()	// Clears what the overlay shows; totalCount() and totalSum() keep counting
+		{
+			for (int n = 0; n < BUCKETS; n++) counts.set(n, 0);
+			total.set(0);
+			sum.set(0);
+			highest.set(0);
+		}
+
+		static int bucket(long value)
+		{
+			if (value < LINEAR) return (int) value;
+			int e = 63 - Long.numberOfLeadingZeros(value);		// 6 and up
+			return LINEAR + ((e - 6) << SUB_BITS) + (int) ((value >>> (e - SUB_BITS)) & ((1 << SUB_BITS) - 1));
+		}
+
+		static long lowest(int bucket)	// Smallest value that lands in a bucket
+		{
+			if (bucket < LINEAR) return bucket;
+			int e = (bucket - LINEAR) / (1 << SUB_BITS) + 6, sub = (bucket - LINEAR) % (1 << SUB_BITS);
+			return ((1L << SUB_BITS) + sub) << (e - SUB_BITS);
+		}
+	}
+
+	@Name("TwentyFortyEight.HotPath")
+	@Label("2048 Hot Path")
+	@Category("2048")
+	@StackTrace(false)
+	static class HotPathEvent extends Event
+	{
+		@Label("Section")
+		String section;
+
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+	}
+}
@@ -0,0 +1,230 @@
+// Fleet monitoring: game counters and JVM health in Prometheus text format, over local HTTP and/or a dump file
+/* Off unless asked for:
+ *   -Dmetrics.port=9404        serves http://127.0.0.1:9404/metrics (loopback only)
+ *   -Dmetrics.file=2048.prom   rewrites the file every -Dmetrics.interval seconds (default 15), atomically, for a
+ *                              node exporter's textfile collector or anything else that reads files
+ * Reports games started and finished, moves, moves/sec, undo/save/load counts, average and highest finished score,
+ * key-to-frame latency (from Instrumentation), time to the first frame (StartupReport) and JVM memory.  The game only ever increments LongAdders, so the move
+ * loop never waits on a scrape; everything else is read when the text is built.
+ *
+ * Usage:  java Metrics [URL or file] [seconds]    a stand-in scraper: reads the metrics every few seconds (default
+ *                                                 http://127.0.0.1:9404/metrics, 5 s) and prints the rate of every
+ *                                                 counter, so a kiosk can be checked with no monitoring server
+ */
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class Metrics
+{
+	static final String PREFIX = "game2048_";
+
+	final LongAdder gamesStarted = new LongAdder(), gamesFinished = new LongAdder();
+	final LongAdder moves = new LongAdder(), undos = new LongAdder(), saves = new LongAdder(), loads = new LongAdder();
+	final LongAdder scoreSum = new LongAdder();					// Of finished games
+	final LongAccumulator scoreMax = new LongAccumulator(Long::max, 0);
+	volatile LongSupplier sessions;								// Games being hosted, where there are several (GameServer)
+	volatile double startupSeconds = -1;						// JVM start to the first frame of the game window (see StartupReport)
+
+	private volatile double movesPerSec = 0;	// Over the last second (sampled by the export timer)
+	private long sampledMoves = 0, sampledAt = 0;
+	private HttpServer server;
+	private ScheduledExecutorService timer;
+	private Path file;
+
+	void gameFinished(int score)
+	{
+		gamesFinished.increment();
+		scoreSum.add(score);
+		scoreMax.accumulate(score);
+	}
+
+	void startExport()	// Starts whatever the system properties ask for (nothing by default)
+	{
+		Integer port = Integer.getInteger("metrics.port");
+		String dump = System.getProperty("metrics.file");
+		if (port == null && dump == null) return;
+		try
+		{
+			startExport((port == null) ? -1 : port, (dump == null) ? null : Paths.get(dump), Integer.getInteger("metrics.interval", 15));
+		}
+		catch (IOException e)	// The game still runs without its metrics
+			{ e.printStackTrace(); }
+	}
+
+	synchronized void startExport(int port, Path dumpFile, int intervalSeconds) throws IOException	// port < 0: no HTTP
+	{
+		if (port >= 0)
+		{
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext("/metrics", exchange ->
+			{
+				byte[] body = render().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody())
+				{
+					out.write(body);
+				}
+			});
+			server.start();
+		}
+		file = dumpFile;
+		timer = Executors.newSingleThreadScheduledExecutor(task ->
+		{
+			Thread thread = new Thread(task, "metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+		if (file != null) timer.scheduleAtFixedRate(this::dump, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	synchronized void close()	// Writes the file one last time (so a finished game is not lost) and stops exporting
+	{
+		if (timer != null) timer.shutdownNow();
+		if (server != null) server.stop(0);
+		dump();
+		timer = null;
+		server = null;
+		file = null;
+	}
+
+	private void sample()
+	{
+		long now = System.nanoTime(), count = moves.sum();
+		if (sampledAt != 0) movesPerSec = (count - sampledMoves) * 1e9 / (now - sampledAt);
+		sampledMoves = count;
+		sampledAt = now;
+	}
+
+	private void dump()
+	{
+		if (file == null) return;
+		try
+		{
+			AutoSaver.replace(file, render().getBytes(StandardCharsets.UTF_8));
+		}
+		catch (IOException e)
+			{ e.printStackTrace(); }
+	}
+
+	String render()		// Every metric in Prometheus text exposition format
+	{
+		StringBuilder text = new StringBuilder(2048);
+		long finished = gamesFinished.sum();
+		metric(text, "games_started_total", "counter", "Games started", gamesStarted.sum());
+		metric(text, "games_finished_total", "counter", "Games finished (lost or quit)", finished);
+		metric(text, "moves_total", "counter", "Moves played", moves.sum());
+		metric(text, "moves_per_second", "gauge", "Moves played over the last second", movesPerSec);
+		metric(text, "undos_total", "counter", "Moves undone", undos.sum());
+		metric(text, "saves_total", "counter", "Games saved", saves.sum());
+		metric(text, "loads_total", "counter", "Games loaded", loads.sum());
+		metric(text, "score_average", "gauge", "Average score of finished games", (finished == 0) ? 0 : (double) scoreSum.sum() / finished);
+		metric(text, "score_max", "gauge", "Highest score of a finished game", scoreMax.get());
+		LongSupplier active = sessions;
+		if (active != null) metric(text, "sessions_active", "gauge", "Games being hosted", active.getAsLong());
+		if (startupSeconds >= 0) metric(text, "startup_seconds", "gauge", "JVM start to the first frame of the game", startupSeconds);
+
+		Instrumentation.Histogram frames = Instrumentation.Probe.KEY_TO_FRAME.histogram;
+		String name = PREFIX + "frame_latency_seconds";
+		text.append("# HELP ").append(name).append(" Key press to the frame that shows it\n");
+		text.append("# TYPE ").append(name).append(" summary\n");
+		for (double q : new double[] { 0.5, 0.9, 0.99 })
+		{
+			text.append(name).append("{quantile=\"").append(q).append("\"} ").append(frames.percentile(q) / 1e9).append('\n');
+		}
+		text.append(name).append("_sum ").append(frames.totalSum() / 1e9).append('\n');		// Not cleared when the overlay resets the histogram
+		text.append(name).append("_count ").append(frames.totalCount()).append('\n');
+		metric(text, "frame_latency_max_seconds", "gauge", "Slowest key press to frame", frames.max() / 1e9);
+
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		MemoryUsage other = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+		text.append("# HELP jvm_memory_bytes_used Used bytes of a memory area\n# TYPE jvm_memory_bytes_used gauge\n");
+		text.append("jvm_memory_bytes_used{area=\"heap\"} ").append(heap.getUsed()).append('\n');
+		text.append("jvm_memory_bytes_used{area=\"nonheap\"} ").append(other.getUsed()).append('\n');
+		text.append("# HELP jvm_memory_bytes_committed Committed bytes of a memory area\n# TYPE jvm_memory_bytes_committed gauge\n");
+		text.append("jvm_memory_bytes_committed{area=\"heap\"} ").append(heap.getCommitted()).append('\n');
+		text.append("jvm_memory_bytes_committed{area=\"nonheap\"} ").append(other.getCommitted()).append('\n');
+		text.append("# HELP jvm_memory_bytes_max Maximum bytes of a memory area (-1 if unbounded)\n# TYPE jvm_memory_bytes_max gauge\n");
+		text.append("jvm_memory_bytes_max{area=\"heap\"} ").append(heap.getMax()).append('\n');
+		return text.toString();
+	}
+
+	private static void metric(StringBuilder text, String name, String type, String help, double value)
+	{
+		text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+		text.append(PREFIX).append(name).append(' ');
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) text.append((long) value);
+		else text.append(value);
+		text.append('\n');
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		String source = (args.length > 0) ? args[0] : "http://127.0.0.1:9404/metrics";
+		long seconds = (args.length > 1) ? Long.parseLong(args[1]) : 5;
+		Map<String, Double> last = null;
+		long lastTime = 0;
+		while (true)
+		{
+			Map<String, Double> now = parse(read(source));
+			long time = System.nanoTime();
+			System.out.printf("--- %d samples%n", now.size());
+			for (Map.Entry<String, Double> sample : now.entrySet())
+			{
+				String name = sample.getKey();
+				Double before = (last == null) ? null : last.get(name);
+				if (name.endsWith("_total") && before != null)
+					System.out.printf("%-48s %14.0f  %8.2f/s%n", name, sample.getValue(), (sample.getValue() - before) * 1e9 / (time - lastTime));
+				else
+					System.out.printf("%-48s %14s%n", name, sample.getValue());
+			}
+			last = now;
+			lastTime = time;
+			Thread.sleep(seconds * 1000);
+		}
+	}
+
+	static String read(String source) throws IOException
+	{
+		if (source.startsWith("http://") == false) return Files.readString(Paths.get(source));
+		try (InputStream in = new URL(source).openStream())
+		{
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	static Map<String, Double> parse(String text)	// Sample name (with labels) to value; comments skipped
+	{
+		Map<String, Double> samples = new LinkedHashMap<>();
+		for (String line : text.split("\n"))
+		{
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			int space = line.lastIndexOf(' ');
+			samples.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+		}
+		return samples;
+	}
+}
@@ -0,0 +1,60 @@
+// Precomputed row transitions for the packed GameEngine board
+/* Every possible 16-bit row (4 cells of 4 bits = 65,536 rows) is slid and combined once at class load.  After that a
+ * move is four table reads per direction: LEFT/RIGHT read the rows directly, UP/DOWN read the rows of the transposed
+ * board.  Comparing a table entry with its index answers "did this row move" without running the move.
+ * The 3x3 board (see GridEngine) uses the same layout with column 3 left empty: LEFT already keeps such a row inside
+ * columns 0-2, and RIGHT3 slides it toward column 2 instead of 3.
+ */
+
+final class MoveTables
+{
+	static final int ROWS = 1 << 16;
+	static final int ROWS3 = 1 << 12;		// Rows of three cells (column 3 empty)
+
+	static final char[] LEFT = new char[ROWS];		// Row after sliding toward column 0
+	static final char[] RIGHT = new char[ROWS];		// Row after sliding toward column 3
+	static final int[] SCORE = new int[ROWS];		// Score gained by the slide (the same for either direction)
+	static final byte[] MERGED_LEFT = new byte[ROWS];	// Merge flags (one bit per column) after sliding left
+	static final byte[] MERGED_RIGHT = new byte[ROWS];	// Merge flags (one bit per column) after sliding right
+	static final byte[] MOVABLE = new byte[ROWS];		// Bit 0: the row changes when slid left, bit 1: when slid right
+	static final char[] RIGHT3 = new char[ROWS3];		// Three-cell row after sliding toward column 2
+	static final byte[] MERGED_RIGHT3 = new byte[ROWS3];
+
+	static
+	{
+		// Filled through locals: in the static initializer every read of a static field of this class takes the slow
+		// path (the class is still being initialized), which made building the tables most of the game's start-up time
+		char[] left = LEFT, right = RIGHT, right3 = RIGHT3;
+		int[] score = SCORE;
+		byte[] mergedLeft = MERGED_LEFT, mergedRight = MERGED_RIGHT, movable = MOVABLE, mergedRight3 = MERGED_RIGHT3;
+		for (int row = 0; row < ROWS; row++)
+		{
+			long shifted = GameEngine.shiftLeft(row);
+			left[row] = (char) (shifted & GameEngine.ROW_MASK);
+			score[row] = (int) (shifted >>> 32);
+			mergedLeft[row] = (byte) ((shifted >>> 16) & 0xF);
+		}
+		for (int row = 0; row < ROWS; row++)	// Right = reverse the row, slide left, reverse back (what shiftRight() does)
+		{
+			int reversed = GameEngine.reverseRow(row), flags = mergedLeft[reversed];
+			right[row] = (char) GameEngine.reverseRow(left[reversed]);
+			mergedRight[row] = (byte) (((flags & 1) << 3) | ((flags & 2) << 1) | ((flags & 4) >>> 1) | ((flags & 8) >>> 3));
+			movable[row] = (byte) ((left[row] != row ? 1 : 0) | (right[row] != row ? 2 : 0));
+		}
+		for (int row = 0; row < ROWS3; row++)	// Right = reverse the three cells, slide left, reverse back
+		{
+			int reversed = ((row & 0xF) << 8) | (row & 0xF0) | ((row >>> 8) & 0xF);	// reverse3(), inlined for the same reason
+			int slid = left[reversed];
+			right3[row] = (char) (((slid & 0xF) << 8) | (slid & 0xF0) | ((slid >>> 8) & 0xF));
+			int flags = mergedLeft[reversed];
+			mergedRight3[row] = (byte) (((flags & 1) << 2) | (flags & 2) | ((flags >>> 2) & 1));
+		}
+	}
+
+	static int reverse3(int row)	// Swaps cells 0 and 2 of a three-cell row
+	{
+		return ((row & 0xF) << 8) | (row & 0xF0) | ((row >>> 8) & 0xF);
+	}
+
+	private MoveTables() {}
+}
@@ -0,0 +1,91 @@
+// Move-choosing strategies for headless play (Simulator) and for the auto-play features of the game
+/* A policy looks at a packed GameEngine board and returns the direction to move (GameEngine.UP/DOWN/LEFT/RIGHT),
+ * or -1 if no direction changes the board.  Policies must be safe to call from many threads at once.
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+
+public interface Policy
+{
+	int choose(long board);
+
+	static Policy byName(String name)	// Looks up a policy from the command line name
+	{
+		switch (name)
+		{
+		case "random":
+			return RANDOM;
+		case "greedy":
+			return GREEDY;
+		case "corner":
+			return CORNER;
+		case "heuristic":
+			return oneStep(Heuristic.standard());
+		case "expectimax":
+			return new Expectimax();
+		default:
+			throw new IllegalArgumentException("Unknown policy: " + name + " (random, greedy, corner, heuristic, expectimax)");
+		}
+	}
+
+	static Policy oneStep(Heuristic heuristic)	// The legal move whose resulting board the heuristic scores highest
+	{
+		return board ->
+		{
+			int best = -1;
+			float bestValue = Float.NEGATIVE_INFINITY;
+			for (int dir = 0; dir <= 3; dir++)
+			{
+				long moved = GameEngine.move(board, dir);
+				if (moved == board) continue;
+				float value = heuristic.evaluate(moved);
+				if (value > bestValue)
+				{
+					best = dir;
+					bestValue = value;
+				}
+			}
+			return best;
+		};
+	}
+
+	// Any legal move, picked at random
+	Policy RANDOM = board ->
+	{
+		int start = ThreadLocalRandom.current().nextInt(4);
+		for (int n = 0; n <= 3; n++)
+		{
+			int dir = (start + n) & 3;
+			if (GameEngine.move(board, dir) != board) return dir;
+		}
+		return -1;
+	};
+
+	// The legal move that gains the most score right now (ties go to the first direction)
+	Policy GREEDY = board ->
+	{
+		int best = -1, bestScore = -1;
+		for (int dir = 0; dir <= 3; dir++)
+		{
+			if (GameEngine.move(board, dir) == board) continue;
+			int gained = GameEngine.moveScore(board, dir);
+			if (gained > bestScore)
+			{
+				best = dir;
+				bestScore = gained;
+			}
+		}
+		return best;
+	};
+
+	// The classic "keep the big tile in a corner" order: Up, Left, Right, then Down only if nothing else moves
+	Policy CORNER = board ->
+	{
+		int[] order = { GameEngine.UP, GameEngine.LEFT, GameEngine.RIGHT, GameEngine.DOWN };
+		for (int dir : order)
+		{
+			if (GameEngine.move(board, dir) != board) return dir;
+		}
+		return -1;
+	};
+}
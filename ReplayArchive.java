@@ -0,0 +1,205 @@
+// Recorded games: every direction pressed and every tile spawned, in two fixed-record files read through FileChannel.map
+/* <name>.idx - one 32-byte record per game:
+ *     long data offset   int move count   long seed   long starting board   int score gained over the recorded moves
+ * <name>.dat - one byte per move, back to back for each game:
+ *     bits 0-1 direction (GameEngine.UP...), bits 2-5 cell of the spawned tile, bit 6 set if the spawn was a 4
+ * Game N is found by reading index record N, and its moves are one contiguous run of bytes, so any game can be read
+ * directly and many gigabytes can be streamed without copying them onto the heap.  A game starts from its own board,
+ * so a session that is undone or loaded simply starts a new record from wherever the board is (the score in the index
+ * is what the record's own moves earned, so it can be checked without knowing the score the game had at its start).
+ * Every spawn in a game comes from new SpawnGenerator(seed), starting with the first move, so the seed and the
+ * directions alone are enough to play a game again; the spawn bits let it be checked (and shown) without one.
+ *
+ * Usage:  java ReplayArchive <name>    replays every game in the archive, checks it against its seed and score,
+ *                                      and prints a summary
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class ReplayArchive
+{
+	static final int INDEX_SIZE = 32;
+	static final int WINDOW = 1 << 30;		// Bytes of the data file mapped at a time
+
+	static int encodeMove(int dir, int spawnCell, int spawnExponent)
+	{
+		return dir | (spawnCell << 2) | ((spawnExponent == 2) ? 0x40 : 0);
+	}
+
+	static long applyMove(long board, int move)	// The board after one recorded move (the move itself, then the spawn)
+	{
+		board = GameEngine.move(board, move & 3);
+		return board | ((long) (((move & 0x40) != 0) ? 2 : 1) << (4 * ((move >>> 2) & 0xF)));
+	}
+
+	static class Game	// One index record
+	{
+		int number;
+		long offset;
+		int moveCount;
+		long seed;
+		long startBoard;
+		int scoreGained;	// By this record's moves, from 0 at its starting board
+	}
+
+	static class Writer implements AutoCloseable	// Appends whole games; safe to share between simulator threads
+	{
+		private final FileChannel index, data;
+		private long dataSize;
+
+		Writer(String name) throws IOException
+		{
+			index = FileChannel.open(Paths.get(name + ".idx"), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			data = FileChannel.open(Paths.get(name + ".dat"), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			dataSize = data.size();
+		}
+
+		synchronized void append(long seed, long startBoard, byte[] moves, int moveCount, int scoreGained) throws IOException
+		{
+			ByteBuffer buf = ByteBuffer.wrap(moves, 0, moveCount);
+			while (buf.hasRemaining()) data.write(buf);
+			ByteBuffer rec = ByteBuffer.allocate(INDEX_SIZE);
+			rec.putLong(dataSize).putInt(moveCount).putLong(seed).putLong(startBoard).putInt(scoreGained).flip();
+			while (rec.hasRemaining()) index.write(rec);
+			dataSize += moveCount;
+		}
+
+		@Override public synchronized void close() throws IOException
+		{
+			index.close();
+			data.close();
+		}
+	}
+
+	static class Recorder	// Collects the moves of one game in memory until it is appended to the archive
+	{
+		long seed, startBoard;
+		int startScore;		// Score of the game when the record began
+		byte[] moves = new byte[1024];
+		int count = 0;
+
+		void begin(long gameSeed, long board, int score)
+		{
+			seed = gameSeed;
+			startBoard = board;
+			startScore = score;
+			count = 0;
+		}
+
+		void move(int dir, int spawnCell, int spawnExponent)
+		{
+			if (count == moves.length) moves = java.util.Arrays.copyOf(moves, count * 2);
+			moves[count++] = (byte) encodeMove(dir, spawnCell, spawnExponent);
+		}
+
+		void end(Writer writer, int finalScore) throws IOException	// Appends the game (if it has any moves) and starts over
+		{
+			if (count > 0) writer.append(seed, startBoard, moves, count, finalScore - startScore);
+			count = 0;
+		}
+	}
+
+	static class Reader implements AutoCloseable
+	{
+		private final FileChannel index, data;
+		private final MappedByteBuffer indexMap;
+		private final MappedByteBuffer[] windows;	// Data file, mapped WINDOW bytes at a time as it is reached
+		final int games;
+
+		Reader(String name) throws IOException
+		{
+			index = FileChannel.open(Paths.get(name + ".idx"), StandardOpenOption.READ);
+			data = FileChannel.open(Paths.get(name + ".dat"), StandardOpenOption.READ);
+			indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size());
+			games = (int) (index.size() / INDEX_SIZE);
+			windows = new MappedByteBuffer[(int) ((data.size() + WINDOW - 1) / WINDOW)];
+		}
+
+		Game game(int n)	// Index record of game n (0 = the first game recorded)
+		{
+			int at = n * INDEX_SIZE;
+			Game game = new Game();
+			game.number = n;
+			game.offset = indexMap.getLong(at);
+			game.moveCount = indexMap.getInt(at + 8);
+			game.seed = indexMap.getLong(at + 12);
+			game.startBoard = indexMap.getLong(at + 20);
+			game.scoreGained = indexMap.getInt(at + 28);
+			return game;
+		}
+
+		int move(Game game, int i) throws IOException	// Encoded move number i of a game
+		{
+			long pos = game.offset + i;
+			int w = (int) (pos / WINDOW);
+			if (windows[w] == null)
+				windows[w] = data.map(FileChannel.MapMode.READ_ONLY, (long) w * WINDOW, Math.min(WINDOW, data.size() - (long) w * WINDOW));
+			return windows[w].get((int) (pos % WINDOW)) & 0xFF;
+		}
+
+		long finalBoard(Game game) throws IOException	// Plays a game's moves from its starting board
+		{
+			long board = game.startBoard;
+			for (int i = 0; i < game.moveCount; i++)
+			{
+				board = applyMove(board, move(game, i));
+			}
+			return board;
+		}
+
+		@Override public void close() throws IOException
+		{
+			index.close();
+			data.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: java ReplayArchive <archive name>");
+			System.exit(1);
+		}
+		long start = System.nanoTime(), moves = 0;
+		long[] tiles = new long[GameEngine.MAX_EXPONENT + 1];
+		int mismatched = 0, unseeded = 0;
+		try (Reader reader = new Reader(args[0]))
+		{
+			for (int n = 0; n < reader.games; n++)
+			{
+				Game game = reader.game(n);
+				SpawnGenerator spawns = new SpawnGenerator(game.seed);
+				long board = game.startBoard;
+				int score = 0;
+				boolean seeded = true;		// Every spawn is the one the seed gives
+				for (int i = 0; i < game.moveCount; i++)
+				{
+					int move = reader.move(game, i);
+					score += GameEngine.moveScore(board, move & 3);
+					long moved = GameEngine.move(board, move & 3);
+					board = applyMove(board, move);
+					int spawn = spawns.next(moved);
+					if ((moved | (long) (spawn >>> 4) << (4 * (spawn & 0xF))) != board) seeded = false;
+				}
+				if (score != game.scoreGained) mismatched++;
+				if (seeded == false) unseeded++;
+				tiles[GameEngine.maxExponent(board)]++;
+				moves += game.moveCount;
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d games, %d moves replayed in %.2f s (%.0f moves/sec)%n", reader.games, moves, seconds, moves / seconds);
+			if (mismatched > 0) System.out.printf("%d games did not reach their recorded score%n", mismatched);
+			if (unseeded > 0) System.out.printf("%d games have spawns their seed does not give (other -Dspawn.algorithm?)%n", unseeded);
+		}
+		for (int e = 1; e < tiles.length; e++)
+		{
+			if (tiles[e] > 0) System.out.printf("  %6d  %d games%n", 1 << e, tiles[e]);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+// The standard Heuristic: a weighted sum of per-line features, each line's share read from a 65,536-entry table
+/* For every possible row (4 nibbles) the constructor works out, once:
+ *   empty cells, pairs of equal tiles that can merge, monotonicity (the smaller of the rising and falling steps, so a
+ *   line sorted either way costs nothing), the sum of big tiles, smoothness (the exponent steps between neighbouring
+ *   tiles, gaps skipped) and, for the board's edge lines only, a bonus when the line's biggest tile is at one end.
+ * Evaluating a board is then eight table reads: its four rows, and its four columns taken as rows of the transposed
+ * board.  The outer rows and columns use the EDGE table, the two inner ones the MIDDLE table, which only differ by
+ * the corner bonus; every feature reads the same backwards, so all 8 symmetric boards score the same.
+ */
+
+final class RowHeuristic implements Heuristic
+{
+	static final RowHeuristic DEFAULT = new RowHeuristic(Weights.fromProperty());
+
+	final Weights weights;
+	private final float[] edge = new float[MoveTables.ROWS];
+	private final float[] middle = new float[MoveTables.ROWS];
+
+	RowHeuristic(Weights weights)
+	{
+		this.weights = weights;
+		float monoPower = weights.get(Weights.MONOTONICITY_POWER), sumPower = weights.get(Weights.SUM_POWER);
+		for (int row = 0; row < MoveTables.ROWS; row++)
+		{
+			int[] line = { row & 0xF, (row >>> 4) & 0xF, (row >>> 8) & 0xF, (row >>> 12) & 0xF };
+			float sum = 0, left = 0, right = 0;
+			int empty = 0, merges = 0, prev = 0, counter = 0, rough = 0, max = 0;
+			for (int rank : line)
+			{
+				sum += (float) Math.pow(rank, sumPower);
+				max = Math.max(max, rank);
+				if (rank == 0)
+				{
+					empty++;
+				}
+				else
+				{
+					if (prev != 0) rough += Math.abs(rank - prev);	// Step from the previous tile in the line
+					if (prev == rank)
+						counter++;
+					else if (counter > 0)
+					{
+						merges += 1 + counter;
+						counter = 0;
+					}
+					prev = rank;
+				}
+			}
+			if (counter > 0) merges += 1 + counter;
+
+			for (int n = 1; n <= 3; n++)	// Penalize the smaller of the two monotonicity violations
+			{
+				if (line[n - 1] > line[n])
+					left += (float) (Math.pow(line[n - 1], monoPower) - Math.pow(line[n], monoPower));
+				else
+					right += (float) (Math.pow(line[n], monoPower) - Math.pow(line[n - 1], monoPower));
+			}
+			middle[row] = weights.get(Weights.LOST_PENALTY) + weights.get(Weights.EMPTY_WEIGHT) * empty
+					+ weights.get(Weights.MERGES_WEIGHT) * merges - weights.get(Weights.MONOTONICITY_WEIGHT) * Math.min(left, right)
+					- weights.get(Weights.SUM_WEIGHT) * sum - weights.get(Weights.SMOOTHNESS_WEIGHT) * rough;
+			boolean cornered = max > 0 && (line[0] == max || line[3] == max);
+			edge[row] = middle[row] + (cornered ? weights.get(Weights.CORNER_WEIGHT) * (float) Math.pow(max, monoPower) : 0);
+		}
+	}
+
+	@Override public float evaluate(long board)
+	{
+		long t = GameEngine.transpose(board);
+		return edge[(int) (board & GameEngine.ROW_MASK)] + middle[(int) ((board >>> 16) & GameEngine.ROW_MASK)]
+				+ middle[(int) ((board >>> 32) & GameEngine.ROW_MASK)] + edge[(int) (board >>> 48)]
+				+ edge[(int) (t & GameEngine.ROW_MASK)] + middle[(int) ((t >>> 16) & GameEngine.ROW_MASK)]
+				+ middle[(int) ((t >>> 32) & GameEngine.ROW_MASK)] + edge[(int) (t >>> 48)];
+	}
+}
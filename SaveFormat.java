@@ -0,0 +1,207 @@
+// Reading and writing saved games (2048.dat)
+/* Version 2 binary layout, big-endian:
+ *   int   MAGIC ("2048")         byte  VERSION      byte size (3 to 8)
+ *   board (GridEngine.words(size) longs)            int   score        int moves        byte xplay
+ *   int   undo count N, then N x (board, int score, int moves), newest first
+ *   int   CRC32 of every byte before it
+ * A 4x4 game with 10 undo moves is 191 bytes.  Scores and move counts are full ints, so nothing overflows the way the
+ * old 5-digit fields did.  Version 1 is the same without the size byte (always 4x4), and read() still accepts the
+ * old text format ("Stored 2048 game:" followed by 12 lines of numbers offset by 10,000).
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+final class SaveFormat
+{
+	static final int MAGIC = 0x32303438;	// "2048"
+	static final int VERSION = 2;
+	static final String LEGACY_HEADER = "Stored 2048 game:";
+
+	static class SavedGame	// Everything a save file holds; undo entries are newest first
+	{
+		int size = 4;
+		long[] board = new long[1];			// GridEngine.words(size) longs
+		int score, moves, xplay;
+		long[] undoBoards = new long[0];	// Undo boards back to back, 'words' longs each
+		int[] undoScores = new int[0];
+		int[] undoMoves = new int[0];
+
+		int words()
+		{
+			return GridEngine.words(size);
+		}
+
+		void setUndo(UndoLog log)	// Copies the undo history out of a log
+		{
+			int n = log.size(), words = words();
+			long[] entry = new long[words];
+			undoBoards = new long[n * words];
+			undoScores = new int[n];
+			undoMoves = new int[n];
+			for (int back = 0; back < n; back++)
+			{
+				log.board(back, entry);
+				System.arraycopy(entry, 0, undoBoards, back * words, words);
+				undoScores[back] = log.score(back);
+				undoMoves[back] = log.moves(back);
+			}
+		}
+
+		void restoreUndo(UndoLog log)	// Replaces the contents of a log with this history (oldest entries first)
+		{
+			int words = words();
+			long[] entry = new long[words];
+			log.clear();
+			for (int back = undoScores.length - 1; back >= 0; back--)
+			{
+				System.arraycopy(undoBoards, back * words, entry, 0, words);
+				log.push(entry, undoScores[back], undoMoves[back]);
+			}
+		}
+	}
+
+	static byte[] encode(SavedGame game)
+	{
+		int words = game.words();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 8 * words + (8 * words + 8) * game.undoScores.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(game.size);
+			for (int w = 0; w < words; w++) out.writeLong(game.board[w]);
+			out.writeInt(game.score);
+			out.writeInt(game.moves);
+			out.writeByte(game.xplay);
+			out.writeInt(game.undoScores.length);
+			for (int n = 0; n < game.undoScores.length; n++)
+			{
+				for (int w = 0; w < words; w++) out.writeLong(game.undoBoards[n * words + w]);
+				out.writeInt(game.undoScores[n]);
+				out.writeInt(game.undoMoves[n]);
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes.toByteArray());
+			out.writeInt((int) crc.getValue());
+		}
+		catch (IOException e)	// A ByteArrayOutputStream does not throw
+			{ throw new IllegalStateException(e); }
+		return bytes.toByteArray();
+	}
+
+	static SavedGame decode(byte[] data) throws IOException
+	{
+		if (data.length >= LEGACY_HEADER.length()
+				&& new String(data, 0, LEGACY_HEADER.length(), StandardCharsets.UTF_8).equals(LEGACY_HEADER))
+			return decodeLegacy(new String(data, StandardCharsets.UTF_8));
+
+		if (data.length < 4) throw new IOException("Save file is too short");
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length - 4);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if (in.readInt() != MAGIC) throw new IOException("Not a 2048 save file");
+		int version = in.readUnsignedByte();
+		if (version < 1 || version > VERSION) throw new IOException("Unsupported save file version " + version);
+
+		SavedGame game = new SavedGame();
+		game.size = (version == 1) ? 4 : in.readUnsignedByte();
+		if (game.size < GridEngine.MIN_SIZE || game.size > GridEngine.MAX_SIZE) throw new IOException("Bad board size " + game.size);
+		int words = game.words();
+		game.board = new long[words];
+		for (int w = 0; w < words; w++) game.board[w] = in.readLong();
+		game.score = in.readInt();
+		game.moves = in.readInt();
+		game.xplay = in.readUnsignedByte();
+		int count = in.readInt();
+		if (count < 0 || count > data.length / (8 * words + 8)) throw new IOException("Corrupt undo count " + count);
+		game.undoBoards = new long[count * words];
+		game.undoScores = new int[count];
+		game.undoMoves = new int[count];
+		for (int n = 0; n < count; n++)
+		{
+			for (int w = 0; w < words; w++) game.undoBoards[n * words + w] = in.readLong();
+			game.undoScores[n] = in.readInt();
+			game.undoMoves[n] = in.readInt();
+		}
+		if (in.readInt() != (int) crc.getValue()) throw new IOException("Save file checksum does not match");
+		return game;
+	}
+
+	static void write(Path file, SavedGame game) throws IOException
+	{
+		Files.write(file, encode(game));
+	}
+
+	static SavedGame read(Path file) throws IOException
+	{
+		return decode(Files.readAllBytes(file));
+	}
+
+	static SavedGame decodeLegacy(String text) throws IOException	// The original text format, as written by the first save_game()
+	{
+		BufferedReader loader = new BufferedReader(new StringReader(text));
+		int[][][] grids = new int[11][4][4];	// Current board and the 10 undo boards as they appear in the file
+		int[] scores = new int[11];
+		SavedGame game = new SavedGame();
+		try
+		{
+			for (int ln = 0; ln <= 12; ln++)
+			{
+				String gData = loader.readLine();
+				if (gData == null) throw new IOException("Save file ends at line " + ln);
+				// lines 1 through 11 in the text file contains the data for the current move and the 10 previous moves (including score)
+				if (ln > 0 && ln < 12)
+				{
+					int cnt = -1;
+					for (int row = 0; row <= 3; row++)
+					{
+						for (int col = 0; col <= 3; col++)
+						{
+							// Scans every 5 characters inbetween commas and then subtracts 10000 to get values for grid positions
+							cnt++;
+							grids[ln-1][col][row] = Integer.parseInt(gData.substring(cnt*6, cnt*6+5)) - 10000;
+						}
+					}
+					cnt++;
+					scores[ln-1] = Integer.parseInt(gData.substring(cnt*6, cnt*6+5)) - 10000;
+				}
+				// lines 12 in the text file contains the data for the number of moves and the extended play flag
+				if (ln == 12)
+				{
+					game.moves = Integer.parseInt(gData.substring(0,5)) - 10000;
+					game.xplay = Integer.parseInt(gData.substring(6,11)) - 10000;
+				}
+			}
+		}
+		catch (RuntimeException e)	// Bad number or short line: the file is corrupted
+			{ throw new IOException("Corrupt save file", e); }
+
+		game.board[0] = GameEngine.pack(grids[0]);
+		game.score = scores[0];
+		int count = 0;
+		while (count < 10 && GameEngine.pack(grids[count+1]) != 0) count++;	// All-zero boards are unused slots
+		game.undoBoards = new long[count];
+		game.undoScores = new int[count];
+		game.undoMoves = new int[count];
+		for (int n = 0; n < count; n++)
+		{
+			game.undoBoards[n] = GameEngine.pack(grids[n+1]);
+			game.undoScores[n] = scores[n+1];
+			game.undoMoves[n] = game.moves - (n+1);	// The old format did not store these; each entry is one move back
+		}
+		return game;
+	}
+
+	private SaveFormat() {}
+}
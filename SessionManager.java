@@ -0,0 +1,75 @@
+// Every game the GameServer is hosting, by session id
+/* Sessions live in a ConcurrentHashMap, so connections on any thread can create and look up games without a global
+ * lock.  A session outlives its connection (a player can ATTACH to it again) until it is ended or has been idle for
+ * longer than the idle limit, when expire() drops it.  Starts, ends, moves and the like are counted in a Metrics.
+ * An id is all ATTACH asks for, so ids come from a SecureRandom (the server can be bound to a public interface); the
+ * tile seeds come from ThreadLocalRandom, a separate stream, so a game's tiles say nothing about its id.
+ */
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+final class SessionManager
+{
+	private static final SecureRandom IDS = new SecureRandom();	// Session ids are the only access check on ATTACH
+
+	private final ConcurrentHashMap<Long, GameSession> sessions = new ConcurrentHashMap<>();
+	private final int undoDepth;
+	private final long idleNanos;
+	final Metrics metrics;
+
+	SessionManager(int undoDepth, long idleNanos, Metrics metrics)
+	{
+		this.undoDepth = undoDepth;
+		this.idleNanos = idleNanos;
+		this.metrics = metrics;
+	}
+
+	GameSession create()	// New game with an unguessable id (so players cannot attach to each other) and a random seed
+	{
+		long seed = ThreadLocalRandom.current().nextLong();	// Tiles need not be secret, only not tied to the id
+		while (true)
+		{
+			long id = IDS.nextLong() & Long.MAX_VALUE;
+			GameSession session = new GameSession(id, seed, undoDepth);
+			if (sessions.putIfAbsent(id, session) == null)
+			{
+				metrics.gamesStarted.increment();
+				return session;
+			}
+		}
+	}
+
+	GameSession get(long id)	// null if there is no such session (never was, ended or expired)
+	{
+		GameSession session = sessions.get(id);
+		if (session != null) session.lastUsed = System.nanoTime();
+		return session;
+	}
+
+	void end(GameSession session)
+	{
+		if (sessions.remove(session.id, session)) metrics.gameFinished(session.score());
+	}
+
+	int expire()	// Ends every session idle for longer than the limit; returns how many
+	{
+		long now = System.nanoTime();
+		int expired = 0;
+		for (GameSession session : sessions.values())
+		{
+			if (now - session.lastUsed > idleNanos && sessions.remove(session.id, session))
+			{
+				metrics.gameFinished(session.score());
+				expired++;
+			}
+		}
+		return expired;
+	}
+
+	int size()
+	{
+		return sessions.size();
+	}
+}
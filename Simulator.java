@@ -0,0 +1,226 @@
+// Headless batch runner: plays many games with a chosen Policy on every core, without starting JavaFX
+/* Usage:  java Simulator [-games N] [-policy random|greedy|corner|heuristic|expectimax] [-threads T] [-search-threads S] [-record NAME]
+ *                        [-seed S] [-cache MB]
+ * -search-threads gives the expectimax policy its own pool of S workers to split each search across.
+ * -cache MB sets the memory budget of the expectimax evaluation cache (shared by every game; see EvaluationCache).
+ * -record NAME appends every game to the replay archive NAME.idx / NAME.dat (see ReplayArchive).
+ * -seed S fixes the tile spawns: game number g always gets the seed SpawnGenerator.gameSeed(S, g), whichever thread
+ * plays it, so a seeded run of any policy but 'random' gives the same results on any number of threads.
+ * Games are split into small batches on a ForkJoin pool.  Each batch plays its games with its own GameEngine and keeps
+ * its own statistics, so workers never share anything until the results are merged at the end.
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class Simulator
+{
+	static final int BATCH = 64;			// Games played by one task before it stops splitting
+	static final int SCORE_BUCKET = 256;	// Width of one score histogram bucket
+	static final int SCORE_BUCKETS = 4096;	// Scores above SCORE_BUCKET * SCORE_BUCKETS land in the last bucket
+
+	public static void main(String[] args)
+	{
+		int games = 10000, threads = Runtime.getRuntime().availableProcessors(), searchThreads = 0, cacheMB = EvaluationCache.DEFAULT_MB;
+		String policyName = "corner", record = null;
+		long seed = ThreadLocalRandom.current().nextLong();
+
+		for (int n = 0; n + 1 < args.length; n += 2)
+		{
+			switch (args[n])
+			{
+			case "-games":
+				games = Integer.parseInt(args[n + 1]);
+				break;
+			case "-policy":
+				policyName = args[n + 1];
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[n + 1]);
+				break;
+			case "-search-threads":
+				searchThreads = Integer.parseInt(args[n + 1]);
+				break;
+			case "-record":
+				record = args[n + 1];
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[n + 1]);
+				break;
+			case "-cache":
+				cacheMB = Integer.parseInt(args[n + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[n]);
+				System.exit(1);
+			}
+		}
+
+		Policy policy = policyName.equals("expectimax")
+				? new Expectimax(3, new EvaluationCache((long) cacheMB << 20), (searchThreads > 0) ? new ForkJoinPool(searchThreads) : null)
+				: Policy.byName(policyName);
+		ReplayArchive.Writer archive = null;
+		try
+		{
+			archive = (record == null) ? null : new ReplayArchive.Writer(record);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Cannot open replay archive " + record + ": " + e);
+			System.exit(1);
+		}
+		long start = System.nanoTime();
+		Stats stats = run(policy, games, threads, archive, seed);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		try
+		{
+			if (archive != null) archive.close();
+		}
+		catch (IOException e)
+			{ e.printStackTrace(); }
+
+		System.out.printf("%d games, policy '%s', %d threads, seed %d, %.2f s%n", stats.games, policyName, threads, seed, seconds);
+		stats.print(System.out, seconds);
+		if (policy instanceof Expectimax)
+		{
+			System.out.printf("search nodes/sec: %.0f%n", ((Expectimax) policy).nodes.sum() / seconds);
+			System.out.println(((Expectimax) policy).cache.stats());
+		}
+		if (searchThreads > 0) System.exit(0);	// The search pool's workers are not daemon threads
+	}
+
+	static Stats run(Policy policy, int games, int threads)	// Runs a batch of games on its own pool and returns the merged results
+	{
+		return run(policy, games, threads, null, ThreadLocalRandom.current().nextLong());
+	}
+
+	static Stats run(Policy policy, int games, int threads, ReplayArchive.Writer archive, long seed)	// Same, recording every game if archive is set
+	{
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try
+		{
+			return pool.invoke(new Batch(policy, archive, seed, 0, games));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	static void play(GameEngine engine, Policy policy, Stats stats, ReplayArchive.Recorder recorder, SpawnGenerator spawns)	// Plays one game to the end and records it
+	{
+		engine.reset();
+		engine.board = spawns.startingBoard();	// 2 starting tiles, same as start()
+		if (recorder != null) recorder.begin(spawns.seed, engine.board, engine.score);
+		int dir;
+		while ((dir = policy.choose(engine.board)) >= 0)
+		{
+			engine.move(dir);
+			engine.spawn(spawns);
+			if (recorder != null) recorder.move(dir, engine.lastSpawn, (int) ((engine.board >>> (4 * engine.lastSpawn)) & 0xF));
+		}
+		stats.add(engine.score, engine.moves, GameEngine.maxExponent(engine.board));
+	}
+
+	static class Batch extends RecursiveTask<Stats>	// Plays games [from, to), splitting in half until the range is small
+	{
+		private static final long serialVersionUID = 1L;
+		final Policy policy;
+		final ReplayArchive.Writer archive;	// null = do not record
+		final long seed;
+		final int from, to;
+
+		Batch(Policy policy, ReplayArchive.Writer archive, long seed, int from, int to)
+		{
+			this.policy = policy;
+			this.archive = archive;
+			this.seed = seed;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override protected Stats compute()
+		{
+			if (to - from <= BATCH)
+			{
+				Stats stats = new Stats();
+				GameEngine engine = new GameEngine();
+				ReplayArchive.Recorder recorder = (archive == null) ? null : new ReplayArchive.Recorder();
+				for (int game = from; game < to; game++)
+				{
+					play(engine, policy, stats, recorder, new SpawnGenerator(SpawnGenerator.gameSeed(seed, game)));
+					try
+					{
+						if (recorder != null) recorder.end(archive, engine.score);
+					}
+					catch (IOException e)
+						{ throw new UncheckedIOException(e); }
+				}
+				return stats;
+			}
+			int mid = (from + to) >>> 1;
+			Batch left = new Batch(policy, archive, seed, from, mid);
+			left.fork();
+			Stats right = new Batch(policy, archive, seed, mid, to).compute();
+			return right.merge(left.join());
+		}
+	}
+
+	static class Stats	// Results of a group of games; merged up the ForkJoin tree
+	{
+		long games = 0, moves = 0, scoreSum = 0;
+		int scoreMin = Integer.MAX_VALUE, scoreMax = 0;
+		final long[] scoreHist = new long[SCORE_BUCKETS];
+		final long[] tileHist = new long[GameEngine.MAX_EXPONENT + 1];	// Games by highest tile exponent
+
+		void add(int score, int moveCount, int maxExponent)
+		{
+			games++;
+			moves += moveCount;
+			scoreSum += score;
+			scoreMin = Math.min(scoreMin, score);
+			scoreMax = Math.max(scoreMax, score);
+			scoreHist[Math.min(score / SCORE_BUCKET, SCORE_BUCKETS - 1)]++;
+			tileHist[maxExponent]++;
+		}
+
+		Stats merge(Stats other)
+		{
+			games += other.games;
+			moves += other.moves;
+			scoreSum += other.scoreSum;
+			scoreMin = Math.min(scoreMin, other.scoreMin);
+			scoreMax = Math.max(scoreMax, other.scoreMax);
+			for (int n = 0; n < SCORE_BUCKETS; n++) scoreHist[n] += other.scoreHist[n];
+			for (int n = 0; n < tileHist.length; n++) tileHist[n] += other.tileHist[n];
+			return this;
+		}
+
+		int scorePercentile(double p)	// Lower edge of the histogram bucket holding the p-th percentile score
+		{
+			long target = (long) Math.ceil(p * games), seen = 0;
+			for (int n = 0; n < SCORE_BUCKETS; n++)
+			{
+				seen += scoreHist[n];
+				if (seen >= target && seen > 0) return n * SCORE_BUCKET;
+			}
+			return scoreMax;
+		}
+
+		void print(java.io.PrintStream out, double seconds)
+		{
+			if (games == 0) return;
+			out.printf("games/sec: %.1f   moves/sec: %.0f%n", games / seconds, moves / seconds);
+			out.printf("score: min %d  mean %.1f  p50 %d  p90 %d  p99 %d  max %d%n", scoreMin, (double) scoreSum / games,
+					scorePercentile(0.50), scorePercentile(0.90), scorePercentile(0.99), scoreMax);
+			out.println("highest tile:");
+			for (int e = 1; e < tileHist.length; e++)
+			{
+				if (tileHist[e] > 0) out.printf("  %6d  %6.2f%%  (%d games)%n", 1 << e, 100.0 * tileHist[e] / games, tileHist[e]);
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+// Sound effects for the game, decoded once and replayed from memory
+/* Each .wav is turned into one AudioClip the first time it is needed (or up front by preload()), and that same clip is
+ * played every time afterwards.  An AudioClip can be started again while it is still playing, so overlapping sounds
+ * need no extra players.  Volume and mute apply to every sound (-Dsound.volume=0.0 to 1.0, Alt+M toggles mute).
+ */
+
+import java.io.File;
+import javafx.scene.media.AudioClip;
+
+public class SoundBank
+{
+	enum Sound
+	{
+		WIN("tada.wav"),			// Win window and new high score
+		GAME_OVER("Layton.wav"),
+		NOPE("BUZZ.wav"),			// Nothing left to undo, or no save file
+		SAVED("Data_Acquire.wav"),
+		LOADED("PRescue.wav");
+
+		final String file;
+
+		Sound(String file)
+		{
+			this.file = file;
+		}
+	}
+
+	private final AudioClip[] clips = new AudioClip[Sound.values().length];
+	volatile double volume = Math.max(0, Math.min(1, Double.parseDouble(System.getProperty("sound.volume", "1.0"))));
+	volatile boolean muted = false;
+
+	void preload()			// Decodes every clip on a background thread so the first play does not stall the game
+	{
+		Thread loader = new Thread(() ->
+		{
+			for (Sound sound : Sound.values())
+			{
+				clip(sound);
+			}
+		}, "sound-preload");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	void play(Sound sound)
+	{
+		if (muted || volume <= 0) return;
+		AudioClip clip = clip(sound);
+		if (clip != null) clip.play(volume);
+	}
+
+	boolean toggleMute()
+	{
+		muted = !muted;
+		return muted;
+	}
+
+	private synchronized AudioClip clip(Sound sound)	// The decoded clip (null if the file could not be loaded)
+	{
+		int n = sound.ordinal();
+		if (clips[n] == null)
+		{
+			try
+			{
+				clips[n] = new AudioClip(new File(sound.file).toURI().toString());
+			}
+			catch (RuntimeException e)	// Missing or unreadable file: the game carries on without this sound
+				{ e.printStackTrace(); }
+		}
+		return clips[n];
+	}
+}
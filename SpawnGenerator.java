@@ -0,0 +1,85 @@
+// Seeded source of tile spawns: the same seed and the same moves always give the same tiles
+/* Each game (or each replay record, see ReplayArchive) gets its own generator built from a 64-bit seed, so simulator
+ * threads never share a random source and any recorded game can be played again tile for tile.
+ *
+ * A spawn takes a single 64-bit draw: the high 32 bits pick one of the empty cells (found all at once as a bitmask of
+ * the board's empty nibbles, so a nearly full board costs no more than an empty one) and the low 32 bits decide
+ * between a 2 (89%) and a 4 (11%).
+ *
+ * The algorithm is any java.util.random generator that can be seeded with a long (-Dspawn.algorithm=NAME, default
+ * SplittableRandom; Xoroshiro128PlusPlus and L64X128MixRandom also work).  Replays only match when they are checked
+ * with the algorithm they were recorded with.
+ */
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+public class SpawnGenerator
+{
+	static final String ALGORITHM = System.getProperty("spawn.algorithm", "SplittableRandom");
+	static final long FOUR_BELOW = (long) (0.11 * (1L << 32));	// Low 32 bits of a draw below this give a 4
+	static final long START_SALT = 0x5DEECE66DL;				// Seeds the starting tiles apart from the spawns after each move
+
+	private static final boolean DEFAULT = ALGORITHM.equals("SplittableRandom");	// Built directly: the factory lookup scans the module path
+	private static final RandomGeneratorFactory<RandomGenerator> FACTORY = DEFAULT ? null : RandomGeneratorFactory.of(ALGORITHM);
+
+	final long seed;
+	private final RandomGenerator rnd;
+
+	SpawnGenerator(long seed)
+	{
+		this.seed = seed;
+		this.rnd = DEFAULT ? new SplittableRandom(seed) : FACTORY.create(seed);
+	}
+
+	static SpawnGenerator random()		// New generator with an unpredictable seed (for a game nobody asked to repeat)
+	{
+		return new SpawnGenerator(ThreadLocalRandom.current().nextLong());
+	}
+
+	static long gameSeed(long baseSeed, long game)	// Seed of game number 'game' in a run started from baseSeed (SplitMix64 finalizer)
+	{
+		long z = baseSeed + (game + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	SpawnGenerator startingTiles()	// Generator for the two starting tiles of a game played from this seed
+	{
+		return new SpawnGenerator(seed ^ START_SALT);
+	}
+
+	long startingBoard()	// The two starting tiles of a new 4x4 game played from this seed
+	{
+		SpawnGenerator tiles = startingTiles();
+		long board = 0;
+		for (int n = 0; n < 2; n++)
+		{
+			int spawn = tiles.next(board);
+			board |= (long) (spawn >>> 4) << (4 * (spawn & 0xF));
+		}
+		return board;
+	}
+
+	int next(long board)	// Cell (bits 0-3) and exponent (bits 4+, 1 = 2, 2 = 4) of the next tile, or -1 if the board is full
+	{
+		int spawn = choose(GameEngine.emptyMask(board));
+		return (spawn < 0) ? -1 : ((spawn & 0xFF) >>> 2) | ((spawn >>> 8) << 4);
+	}
+
+	int choose(long empty)	// Picks one set bit of any empty-cell mask: bit number (bits 0-7) and exponent (bits 8+), -1 if none
+	{
+		int count = Long.bitCount(empty);
+		if (count == 0) return -1;
+		long draw = rnd.nextLong();
+		int pick = (int) (((draw >>> 32) * count) >>> 32);	// 0 .. count-1
+		for (; pick > 0; pick--)
+		{
+			empty &= empty - 1;		// Drop the lowest empty cell until the chosen one is lowest
+		}
+		return Long.numberOfTrailingZeros(empty) | (((draw & 0xFFFFFFFFL) < FOUR_BELOW ? 2 : 1) << 8);
+	}
+}
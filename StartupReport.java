@@ -0,0 +1,55 @@
+// Time to first interactive frame: how long each step of starting the game window took
+/* The game marks each step as it reaches it (main, start(), window shown, game ready, first frame, high score read).
+ * The first frame is the one that shows the board, so it is when the game can be played.  -Dstartup.report=true
+ * prints the steps to stderr once that frame is up, and Metrics exports the total as game2048_startup_seconds so a
+ * fleet of kiosks can be compared.  Times count from the JVM's own start, so JVM and JavaFX start-up are included.
+ */
+
+import java.lang.management.ManagementFactory;
+
+final class StartupReport
+{
+	static final boolean PRINT = Boolean.getBoolean("startup.report");
+	static final String FIRST_FRAME = "first frame";
+
+	private static final long MAIN_NANOS = System.nanoTime(), MAIN_MILLIS = System.currentTimeMillis();	// When main() first marked
+	private static final String[] steps = new String[16];
+	private static final long[] times = new long[16];
+	private static int count = 0;
+
+	static synchronized void mark(String step)
+	{
+		if (count == steps.length) return;
+		steps[count] = step;
+		times[count++] = System.nanoTime();
+	}
+
+	static synchronized double seconds(String step)	// From JVM start to a step (-1 if it has not been reached)
+	{
+		for (int n = 0; n < count; n++)
+		{
+			if (steps[n].equals(step)) return (times[n] - jvmStart()) / 1e9;
+		}
+		return -1;
+	}
+
+	static synchronized String report()		// One line per step: time since JVM start and since the step before
+	{
+		long origin = jvmStart(), last = origin;
+		StringBuilder text = new StringBuilder("Startup (ms)          total    step\n");
+		for (int n = 0; n < count; n++)
+		{
+			text.append(String.format("  %-18s %7.1f %7.1f%n", steps[n], (times[n] - origin) / 1e6, (times[n] - last) / 1e6));
+			last = times[n];
+		}
+		return text.toString();
+	}
+
+	private static long jvmStart()	// The JVM's start time on the System.nanoTime() clock (millisecond precision)
+	{
+		// Off the startup path: the management classes take tens of milliseconds to load
+		return MAIN_NANOS - (MAIN_MILLIS - ManagementFactory.getRuntimeMXBean().getStartTime()) * 1_000_000;
+	}
+
+	private StartupReport() {}
+}
@@ -0,0 +1,314 @@
+// Text front end: the same game as TwentyFortyEight, played in a terminal or driven by a script, without JavaFX
+/* Usage:  java Terminal [-seed S] [-plain] [SCRIPT]
+ * With no script and a terminal on stdin, the board is drawn in ANSI colour and read from single key presses:
+ *     arrow keys or WASD   move        u  undo        S / L  save to / load from 2048.dat        q  quit
+ * Otherwise commands are read one per line from SCRIPT, or from stdin when it is piped:
+ *     up | down | left | right (or U D L R)    undo    save [FILE]    load [FILE]    print    quit    # comment
+ * and after the last one the final position is printed, so a script with -seed is a repeatable test of the game:
+ *     score 1234 moves 150 won over
+ *     followed by the board, one row per line.
+ * Moves, spawns, undo and saves are GameState's, the same as the window's (-Dboard.size and -Dundo.depth work here
+ * too), so 2048.dat moves freely between the two.  A save or load that fails is reported and the game carries on.  Nothing here touches
+ * JavaFX, so it starts in a few tens of milliseconds on a machine with no display.
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+public class Terminal
+{
+	static final Path SAVE_FILE = Paths.get("2048.dat");
+	static final int[] COLOUR =		// 256-colour ANSI background of each exponent (0 = empty cell), close to the window's
+		{ 250, 230, 223, 215, 209, 203, 196, 229, 228, 227, 226, 220, 16 };
+
+	final GameState state;
+	final int size;
+	final GridEngine engine;	// The game's own engine (board, score, move count)
+	final PrintStream out;
+	boolean ansi;				// Colour and cursor control (interactive play only)
+	String message = "";		// One line shown under the board
+
+	Terminal(SpawnGenerator spawns, PrintStream out)
+	{
+		this.out = out;
+		state = GameState.fromProperties(spawns);
+		size = state.size;
+		engine = state.engine;
+		state.start();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		SpawnGenerator spawns = null;
+		boolean plain = false;
+		String script = null;
+		for (int n = 0; n < args.length; n++)
+		{
+			switch (args[n])
+			{
+			case "-seed":
+				spawns = new SpawnGenerator(Long.parseLong(args[++n]));
+				break;
+			case "-plain":
+				plain = true;
+				break;
+			default:
+				script = args[n];
+				break;
+			}
+		}
+		Terminal game = new Terminal((spawns == null) ? SpawnGenerator.random() : spawns, System.out);
+		if (script == null && System.console() != null)
+		{
+			game.ansi = (plain == false);
+			game.interactive();
+		}
+		else
+		{
+			try (BufferedReader in = (script == null) ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+					: Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8))
+			{
+				System.exit(game.script(in) ? 0 : 1);
+			}
+		}
+	}
+
+	boolean move(int dir)	// GameState's move, then what it means for the player
+	{
+		if (state.move(dir) == false) return false;
+		if (state.takeWin())
+		{
+			message = "You made " + (1 << GridEngine.winExponent(size)) + "! Play on as long as you can.";
+			state.xplay = 1;		// Reported once; play carries on
+		}
+		if (engine.isGameOver()) message = "Game over: no move is left.";
+		return true;
+	}
+
+	boolean undo()
+	{
+		return state.undo();
+	}
+
+	void save(Path file) throws IOException
+	{
+		AutoSaver.replace(file, SaveFormat.encode(state.save()));
+	}
+
+	void load(Path file) throws IOException
+	{
+		SaveFormat.SavedGame game = SaveFormat.read(file);
+		if (game.size != size) throw new IOException(file + " holds a " + game.size + "x" + game.size + " game; start with -Dboard.size=" + game.size + " to load it");
+		state.load(game);
+	}
+
+	boolean script(BufferedReader in) throws IOException	// Runs every command; false if one of them was not understood
+	{
+		String line;
+		int number = 0;
+		boolean ok = true;
+		while ((line = in.readLine()) != null)
+		{
+			number++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			int space = line.indexOf(' ');
+			String command = (space < 0) ? line : line.substring(0, space);
+			String arg = (space < 0) ? null : line.substring(space + 1).trim();
+			switch (command.toLowerCase(Locale.ROOT))
+			{
+			case "up":
+			case "u":
+				move(GameEngine.UP);
+				break;
+			case "down":
+			case "d":
+				move(GameEngine.DOWN);
+				break;
+			case "left":
+			case "l":
+				move(GameEngine.LEFT);
+				break;
+			case "right":
+			case "r":
+				move(GameEngine.RIGHT);
+				break;
+			case "undo":
+				undo();
+				break;
+			case "save":
+			case "load":
+				try
+				{
+					Path file = (arg == null) ? SAVE_FILE : Paths.get(arg);
+					if (command.equalsIgnoreCase("save")) save(file);
+					else load(file);
+				}
+				catch (IOException e)	// Reported like a bad command; the game carries on as it was
+				{
+					System.err.println("line " + number + ": " + e);
+					ok = false;
+				}
+				break;
+			case "print":
+				print();
+				break;
+			case "quit":
+				print();
+				return ok;
+			default:
+				System.err.println("line " + number + ": unknown command " + command);
+				ok = false;
+				break;
+			}
+		}
+		print();
+		return ok;
+	}
+
+	void interactive() throws IOException	// Key-at-a-time play until 'q'
+	{
+		String saved = stty("-g");		// Terminal settings to put back (null: no stty, so keys need Enter)
+		if (saved != null) stty("-icanon -echo min 1");
+		try
+		{
+			InputStream in = System.in;
+			draw();
+			int key;
+			while ((key = in.read()) >= 0)
+			{
+				message = "";
+				if (key == 27 && in.read() == '[') key = in.read() + 256;	// ESC [ A..D: arrow keys
+				switch (key)
+				{
+				case 'A' + 256: case 'w':
+					move(GameEngine.UP);
+					break;
+				case 'B' + 256: case 's':
+					move(GameEngine.DOWN);
+					break;
+				case 'D' + 256: case 'a':
+					move(GameEngine.LEFT);
+					break;
+				case 'C' + 256: case 'd':
+					move(GameEngine.RIGHT);
+					break;
+				case 'u':
+					if (undo() == false) message = "Nothing to undo.";
+					break;
+				case 'S':
+					try
+					{
+						save(SAVE_FILE);
+						message = "Saved to " + SAVE_FILE + ".";
+					}
+					catch (IOException e)
+						{ message = "Could not save " + SAVE_FILE + ": " + e.getMessage(); }
+					break;
+				case 'L':
+					try
+					{
+						load(SAVE_FILE);
+						message = "Loaded " + SAVE_FILE + ".";
+					}
+					catch (NoSuchFileException e)
+						{ message = "There is no " + SAVE_FILE + " to load."; }
+					catch (IOException e)
+						{ message = e.getMessage(); }
+					break;
+				case 'q':
+					return;
+				default:
+					continue;	// Enter, the rest of an escape sequence, anything unknown: nothing to redraw
+				}
+				draw();
+			}
+		}
+		finally
+		{
+			if (saved != null) stty(saved);
+			out.println();
+		}
+	}
+
+	void draw()
+	{
+		if (ansi == false)		// -plain: the script output, then the message
+		{
+			print();
+			out.println(message);
+			return;
+		}
+		StringBuilder text = new StringBuilder(1024);
+		text.append("\033[H\033[2J");
+		text.append("2048   score ").append(engine.score).append("   moves ").append(engine.moves).append("\n\n");
+		for (int row = 0; row < size; row++)
+		{
+			for (int col = 0; col < size; col++)
+			{
+				int exponent = GridEngine.exponentAt(size, engine.board, col, row);
+				int colour = COLOUR[Math.min(exponent, COLOUR.length - 1)];
+				text.append("\033[48;5;").append(colour).append(exponent > 2 ? ";97m" : ";30m");
+				cell(text, exponent).append(' ');
+			}
+			text.append("\033[0m\n");
+		}
+		text.append('\n').append(message).append('\n');
+		text.append("arrows/WASD move, u undo, S save, L load, q quit\n");
+		out.print(text);
+		out.flush();
+	}
+
+	void print()	// The position as plain text, for scripts and tests
+	{
+		StringBuilder text = new StringBuilder(256);
+		text.append("score ").append(engine.score).append(" moves ").append(engine.moves);
+		if (state.xplay != 0 || GridEngine.maxExponent(size, engine.board) >= GridEngine.winExponent(size)) text.append(" won");
+		if (engine.isGameOver()) text.append(" over");
+		text.append('\n');
+		for (int row = 0; row < size; row++)
+		{
+			for (int col = 0; col < size; col++)
+			{
+				int exponent = GridEngine.exponentAt(size, engine.board, col, row);
+				cell(text, exponent);
+			}
+			text.append('\n');
+		}
+		out.print(text);
+		out.flush();
+	}
+
+	static StringBuilder cell(StringBuilder text, int exponent)	// The tile right-aligned in six columns ('.' if empty; no String.format, which is slow to load)
+	{
+		String value = (exponent == 0) ? "." : Long.toString(1L << exponent);
+		for (int n = value.length(); n < 6; n++) text.append(' ');
+		return text.append(value);
+	}
+
+	static String stty(String settings)	// Runs stty on the controlling terminal; its output, or null if there is none
+	{
+		try
+		{
+			Process stty = new ProcessBuilder("sh", "-c", "stty " + settings + " < /dev/tty").redirectErrorStream(true).start();
+			String result = new String(stty.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+			return (stty.waitFor() == 0) ? result : null;
+		}
+		catch (IOException e)	// No sh or stty (Windows): keys are read a line at a time
+			{ return null; }
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+}
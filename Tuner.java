@@ -0,0 +1,130 @@
+// Batch tuning of the RowHeuristic weights: plays seeded headless games with candidate weights on every core
+/* Usage:  java Tuner [-generations G] [-candidates K] [-games N] [-depth D] [-threads T] [-seed S] [-sigma X]
+ *                    [-start FILE] [-out FILE]
+ * A (1+K) evolution strategy.  Each generation makes K copies of the best weights so far (the incumbent), moves about
+ * half of each copy's weights by a random step (normal, sigma times the weight's size), and plays the same N seeded
+ * games with the incumbent and every candidate through Simulator.run on T threads, so all of them see the same
+ * tiles.  The highest mean score becomes the incumbent.  Every generation uses new seeds and plays the incumbent
+ * again, so a lucky set of games cannot keep a weak candidate on top.  Whenever the incumbent changes, its weights
+ * are written to FILE (default tuned.properties), ready for -Dheuristic.weights=FILE, so a run can be stopped at
+ * any point and -start FILE carries on from it.
+ *
+ * -depth 0 (the default) tunes the one-move 'heuristic' policy, which plays thousands of games a second; -depth D
+ * plays with Expectimax looking up to D moves ahead, slower but closer to how the game uses the weights.
+ */
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+public class Tuner
+{
+	// Smallest step size of each weight (Heuristic.Weights order); the lost penalty only shifts every score, so it stays
+	static final float[] STEP = { 0f, 0.5f, 10f, 0.5f, 2f, 100f, 50f, 5f, 5f };
+	static final float MIN_POWER = 1f, MAX_POWER = 8f;
+
+	public static void main(String[] args) throws IOException
+	{
+		int generations = 100, candidates = 8, games = 2000, depth = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = 1;
+		float sigma = 0.2f;
+		Path out = Paths.get("tuned.properties");
+		Heuristic.Weights incumbent = new Heuristic.Weights();
+
+		for (int n = 0; n + 1 < args.length; n += 2)
+		{
+			switch (args[n])
+			{
+			case "-generations":
+				generations = Integer.parseInt(args[n + 1]);
+				break;
+			case "-candidates":
+				candidates = Integer.parseInt(args[n + 1]);
+				break;
+			case "-games":
+				games = Integer.parseInt(args[n + 1]);
+				break;
+			case "-depth":
+				depth = Integer.parseInt(args[n + 1]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[n + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[n + 1]);
+				break;
+			case "-sigma":
+				sigma = Float.parseFloat(args[n + 1]);
+				break;
+			case "-start":
+				incumbent = Heuristic.Weights.load(Paths.get(args[n + 1]));
+				break;
+			case "-out":
+				out = Paths.get(args[n + 1]);
+				break;
+			default:
+				System.err.println("Unknown option: " + args[n]);
+				System.exit(1);
+			}
+		}
+
+		SplittableRandom rnd = new SplittableRandom(seed);
+		System.out.printf("Tuning with %d games per candidate, %d candidates, depth %d, %d threads%n", games, candidates, depth, threads);
+		for (int gen = 1; gen <= generations; gen++)
+		{
+			long start = System.nanoTime();
+			long gameSeed = SpawnGenerator.gameSeed(seed, gen);
+			double incumbentScore = meanScore(incumbent, games, depth, threads, gameSeed);
+			Heuristic.Weights best = null;
+			double bestScore = incumbentScore;
+			for (int c = 0; c < candidates; c++)
+			{
+				Heuristic.Weights candidate = mutate(incumbent, sigma, rnd);
+				double score = meanScore(candidate, games, depth, threads, gameSeed);
+				if (score > bestScore)
+				{
+					best = candidate;
+					bestScore = score;
+				}
+			}
+			System.out.printf("gen %3d  incumbent %10.1f  best %10.1f  %s  %.1f s%n", gen, incumbentScore, bestScore,
+					(best == null) ? "kept    " : String.format("%+6.2f%%", 100 * (bestScore / incumbentScore - 1)),
+					(System.nanoTime() - start) / 1e9);
+			if (best != null)
+			{
+				incumbent = best;
+				incumbent.save(out, String.format("Tuner generation %d, mean score %.1f over %d games, depth %d", gen, bestScore, games, depth));
+			}
+		}
+		System.out.print(incumbent);
+	}
+
+	static double meanScore(Heuristic.Weights weights, int games, int depth, int threads, long seed)	// Over the same games for any weights
+	{
+		Heuristic heuristic = new RowHeuristic(weights);
+		Policy policy = (depth <= 0) ? Policy.oneStep(heuristic) : new Expectimax(depth, new EvaluationCache(), null, heuristic);
+		Simulator.Stats stats = Simulator.run(policy, games, threads, null, seed);
+		return (double) stats.scoreSum / stats.games;
+	}
+
+	static Heuristic.Weights mutate(Heuristic.Weights weights, float sigma, SplittableRandom rnd)
+	{
+		float[] values = weights.values.clone();
+		for (int n = 0; n < values.length; n++)
+		{
+			if (STEP[n] == 0 || rnd.nextBoolean()) continue;
+			float v = values[n] + (float) (gaussian(rnd) * sigma * Math.max(Math.abs(values[n]), STEP[n]));
+			if (n == Heuristic.Weights.MONOTONICITY_POWER || n == Heuristic.Weights.SUM_POWER)
+				v = Math.max(MIN_POWER, Math.min(MAX_POWER, v));
+			values[n] = Math.max(0, v);
+		}
+		return new Heuristic.Weights(values);
+	}
+
+	static double gaussian(SplittableRandom rnd)	// Standard normal (Box-Muller)
+	{
+		return Math.sqrt(-2 * Math.log(1 - rnd.nextDouble())) * Math.cos(2 * Math.PI * rnd.nextDouble());
+	}
+}
@@ -7,8 +7,10 @@
  * You use the directional arrow keys to shift all of the tiles in the specified direction to merge them, if they are the same number.
  */
  
+import javafx.animation.AnimationTimer;
 import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -21,8 +23,6 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.HBox;
-import javafx.scene.media.Media;
-import javafx.scene.media.MediaPlayer;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
@@ -30,25 +30,42 @@ import javafx.scene.text.FontWeight;
 import javafx.scene.text.TextAlignment;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 
 public class TwentyFortyEight extends Application
 {
-	int[][][] GridValues = new int[11][4][4];	// Initialize 4x4 grid array(s) - allows for up to 10 undo moves
-	int[][] sfx = new int[4][4];				// Special effects flags (sfx==1): new tile; (sfx==2): tile combined
-	int[] score = new int[11];					// Score array for keeping track of up to 10 undo moves
-	int hiscore = 0 , moves = 0;				// Move counter
-	int i = 0 , col = 0 , row = 0;				// Variables used for incrementing arrays and testing integer values
-	int xplay = 0;								// Flags (xplay=1): player wants to extend play
-	boolean z;									// Dummy variable for misc. use
+	GameState state = GameState.fromProperties(SpawnGenerator.random());	// The game itself: board, score, moves, undo, spawns, xplay
+	final int size = state.size;				// Cells per side (-Dboard.size=3..8)
+	int[][] GridValues = new int[size][size];	// Initialize size x size grid array of the current board
+	int[][] sfx = new int[size][size];			// Special effects flags (sfx==1): new tile; (sfx==2): tile combined
+	UndoLog history = state.history;			// Previous boards (-Dundo.depth=N, 0 = unlimited)
+	int hiscore = 0;							// Best score so far (HighScore.dat)
+	static final String HSCORE_HEADER = "2048 high score";	// First line of HighScore.dat; the score is on the second
+	CompletableFuture<Integer> storedHScore;	// Score read from HighScore.dat in the background (see read_hscore)
+	GridEngine engine = state.engine;			// Packed-board engine that does the actual moving and combining (score and move counter too)
+	Expectimax advisor;							// Search used for hints and auto-play (on all cores); made by the first search
+	Analysis analysis = new Analysis(Platform::runLater, () -> board()[0], position -> advisor().choose(position));	// Runs the advisor off the FX thread
+	boolean autoplay = false;					// True while the computer is playing (Alt+A)
+	int autoGeneration = 0;						// Bumped by every Alt+A, so a search from an earlier run of auto-play is ignored
+	SoundBank sounds = new SoundBank();			// Every sound effect, decoded once
+	Metrics metrics = new Metrics();			// Counters for fleet monitoring (exported only with -Dmetrics.port / -Dmetrics.file)
+	AutoSaver autosaver;						// Journals every move on a background thread (created in start())
+	ReplayArchive.Writer replays;				// replays.idx/.dat: every 4x4 game played, appended when it ends (null if unavailable)
+	ReplayArchive.Recorder recorder = new ReplayArchive.Recorder();	// Moves and spawns of the game being played
+	ReplayArchive.Reader replayReader;			// Open while a replay is being shown (Alt+R)
+	ReplayArchive.Game replayGame;
+	int replayStep = 0;
+	long replayBoard = 0;
 
 	// Define all of the main graphic entities being used
 	GridPane grdBase = new GridPane();		// Grid pane where all game tile movement and animation lives
@@ -56,9 +73,62 @@ public class TwentyFortyEight extends Application
 	BorderPane bpInner = new BorderPane();	// Inner pane (top title bar of scene added to main border pane)
 	BorderPane bpMain = new BorderPane();	// Main border pane (contains bpInner and spMain, loaded into scene scMain)
 	Scene scMain= new Scene(bpMain);		// The scene, which is the game window
+	Label lbHint = new Label();				// Shows the suggested move after Alt+I
+	Label lbPerf = new Label();				// Performance overlay (Alt+P)
+	Label lbHScore, lbScore, lbMoves;		// Scoreboard labels (made once in start(), text updated in UpdateDisplay)
+	BoardView boardView;					// The tile nodes drawn on top of grdBase
+	BoardAnimator animator;					// Slides and pops the tiles after each move
+	InputQueue inputs = InputQueue.fromProperties();	// Arrow keys waiting to be played at the next pulse (see FlushMoves)
+	long[] lastStep = new long[GridEngine.words(size)];	// Board before the last move of a batch (where its slide starts)
+	PauseTransition autoDelay = new PauseTransition(Duration.millis(60));	// Time between auto-play moves
+	PauseTransition replayDelay = new PauseTransition(Duration.millis(250));	// Time between replayed moves
+	long keyPressed = 0;					// System.nanoTime() of the last key press not drawn yet (0 = none)
+	boolean shown = false;					// The first frame has been drawn (see first_frame)
+	String fancyFamily;						// Font family of BLKCHCRY.TTF, once a dialog has loaded it (see fancy_font)
+	Stage helpStage, winStage, hsStage, endStage;	// Dialogs, each built the first time it is shown and reused after that
+	Label hsLabel;							// The score on hsStage
+	AnimationTimer inputPump = new AnimationTimer()	// Runs while arrow keys are queued: plays them as one batch per pulse
+	{
+		@Override public void handle(long now)
+		{
+			if (inputs.isEmpty())
+			{
+				stop();
+				return;
+			}
+			FlushMoves();	// Not held back by a slide still running: the next animation snaps it to its end
+			WinLoseCheck();
+			stop();
+		}
+	};
+	AnimationTimer perfTimer = new AnimationTimer()	// While the overlay is shown: times every frame, redraws the figures twice a second
+	{
+		long lastFrame = 0, lastText = 0, lastMoves = 0;
+
+		@Override public void handle(long now)
+		{
+			if (lastFrame != 0) Instrumentation.Probe.FRAME.histogram.record(now - lastFrame);
+			lastFrame = now;
+			if (now - lastText < 500_000_000L) return;
+			Instrumentation.Histogram frames = Instrumentation.Probe.FRAME.histogram, alloc = Instrumentation.ALLOCATION;
+			double movesPerSec = (lastText == 0) ? 0 : (alloc.count() - lastMoves) * 1e9 / (now - lastText);
+			lastText = now;
+			lastMoves = alloc.count();
+			lbPerf.setText(String.format("frame %.1f ms  p99 %.1f  max %.1f%nmoves/sec %.1f   alloc/move %.1f KB  p99 %.1f KB%n%s",
+					frames.percentile(0.50) / 1e6, frames.percentile(0.99) / 1e6, frames.max() / 1e6, movesPerSec,
+					alloc.percentile(0.50) / 1024.0, alloc.percentile(0.99) / 1024.0, Instrumentation.report()));
+		}
+
+		@Override public void stop()
+		{
+			super.stop();
+			lastFrame = lastText = lastMoves = 0;
+		}
+	};
 
  	public static void main(String[] args) 
  	{	
+		StartupReport.mark("main");
 		launch(args);	// Executes the start routine, which sets the Main stage
 	}
 
@@ -71,6 +141,9 @@ public class TwentyFortyEight extends Application
  		//   Stack Pane (spMain) - the stack pane on top of grdBase allows additional rectangles to be stacked later,
  		//							which are the moving 2048 tiles.
 		
+		StartupReport.mark("start()");
+		metrics.startExport();
+
  		// ** bpMain ** - border pane located in scMain scene at the end of this routine
 
 		// Add buttons to bpMain
@@ -142,40 +215,26 @@ public class TwentyFortyEight extends Application
  		Label name = new Label("2048");							// Title added to bpIbnner
 		name.setFont(Font.font("Impact", FontWeight.BOLD,36));	// Set the font of the "2048" title text
 		bpInner.setLeft(name);									// Left justify the title
+		lbHint.setFont(Font.font("Impact", 20));
+		bpInner.setCenter(lbHint);								// Hint text goes between the title and the scores
 		
-		// Retrieve High Score 
-		BufferedReader loadhscore;
-		try
+		// Retrieve High Score in the background; the board does not wait for the disk (displayHScore waits for it)
+		storedHScore = CompletableFuture.supplyAsync(this::read_hscore);
+		storedHScore.thenAccept(best -> Platform.runLater(() ->
 		{
-			loadhscore = new BufferedReader(new FileReader("HighScore.dat"));
-			String gHScore = null;
-			try
-			{
-				gHScore = loadhscore.readLine();					// Starts reading off of file
-				int val = Integer.parseInt(gHScore.substring(0,5));	// Converts integer values to a String for scanning
-				// 10,000 was added to stored number as a formatting tool for ease of recovering the data here
-				hiscore = val - 10000;
-			}
-			catch (IOException e)						// Auto-generated catch block
-				{ e.printStackTrace(); }
-			try
-			{
-				loadhscore.close();						// Closes highscore window
-			}
-			catch (IOException e)						// Auto-generated catch block
-				{ e.printStackTrace(); }
-		}
-		catch (FileNotFoundException e)					// Auto-generated catch block
-			{ e.printStackTrace(); }
+			hiscore = Math.max(hiscore, best);		// A game already under way may have beaten it
+			lbHScore.setText("High Score: \n" + hiscore);
+			StartupReport.mark("high score read");
+		}));
 			
 		HBox hBox = new HBox(64);								// Display box added to bpInner with items spaced 64 pixels apart
-		Label lbHScore = new Label("High Score: \n" + hiscore);	// Display the high score
+		lbHScore = new Label("High Score: \n" + hiscore);		// Display the high score
 		lbHScore.setStyle("-fx-border-color: rgb(187,173,160); -fx-border-radius: 5,5,5,5;"
 				+ " -fx-background-color: rgb(187,173,160); -fx-background-radius: 5,5,5,5;");
-		Label lbScore = new Label("Score:      \n" + score[0]);	// Display the score
+		lbScore = new Label("Score:      \n" + engine.score);		// Display the score
 		lbScore.setStyle("-fx-border-color: rgb(187,173,160); -fx-border-radius: 5,5,5,5;"
 				+ " -fx-background-color: rgb(187,173,160); -fx-background-radius: 5,5,5,5;");
-		Label lbMoves = new Label("Move Count: \n" + moves);	// Display the number of moves
+		lbMoves = new Label("Move Count: \n" + engine.moves);		// Display the number of moves
 		lbMoves.setStyle("-fx-border-color: rgb(187,173,160); -fx-border-radius: 5,5,5,5;"
 				+ " -fx-background-color: rgb(187,173,160); -fx-background-radius: 5,5,5,5;");
 		hBox.getChildren().addAll(lbHScore, lbScore, lbMoves);	// Adds all of the buttons to the HBox
@@ -190,21 +249,36 @@ public class TwentyFortyEight extends Application
 		grdBase.setHgap(18);						// Sets horizontal gap between rectangles (9 pixel border around each except 1st row)
 		grdBase.setVgap(18);						// Sets vertical gap between rectangles (9 pixel border around each except 1st col)
 		
-		for(col=0; col<=3; col++)					// Add 4x4 grid of 16 rectangles in grdBase
+		for(int col=0; col<size; col++)				// Add size x size grid of rectangles in grdBase
 		{
-			for(row=0; row<=3; row++)
+			for(int row=0; row<size; row++)
 			{
-				Rectangle recBase = new Rectangle(0,0,132,132);	// (start position x,y,width,height)
+				Rectangle recBase = new Rectangle(0,0,BoardView.tileSize(size),BoardView.tileSize(size));	// (start position x,y,width,height)
 				recBase.setFill(Color.rgb(204, 192, 179));  	// Color.rgb(204, 192, 179
 				recBase.setArcHeight(10);						// Creates the 'smooth' curves of the tiles
 				recBase.setArcWidth(10);
 				grdBase.add(recBase,col,row);
 			}
 		}
+		boardView = new BoardView(grdBase, size);	// The tiles themselves sit on top of the rectangles and are reused all game
+		animator = new BoardAnimator(boardView, () -> { if (inputs.isEmpty() == false) { FlushMoves(); WinLoseCheck(); } });
+		engine.deltas = new int[size * size];		// Have the engine list tile movements for the animation
 					
 		// ** spMain ** - this is the invisible stack pane object located in the middle of bpMain
 		spMain.setPadding(new Insets(0,0,4,0));		// White space gap around Stack Pane (top, right, bottom, left)
 		spMain.getChildren().add(grdBase);			// Add the 4x4 grid of light tan colored rectangles to the Stack Pane spMain
+		lbPerf.setFont(Font.font("Monospaced", 12));	// Performance overlay over the top left of the board, hidden until Alt+P
+		lbPerf.setStyle("-fx-background-color: rgba(0,0,0,0.75); -fx-text-fill: white; -fx-padding: 6;");
+		lbPerf.setMouseTransparent(true);
+		lbPerf.setVisible(false);
+		StackPane.setAlignment(lbPerf, Pos.TOP_LEFT);
+		spMain.getChildren().add(lbPerf);
+		scMain.addPostLayoutPulseListener(() ->		// The first pulse after a key press is the frame that shows it
+		{
+			if (keyPressed != 0) Instrumentation.end(Instrumentation.Probe.KEY_TO_FRAME, keyPressed);
+			keyPressed = 0;
+			if (shown == false) first_frame();
+		});
 		bpMain.setCenter(spMain);					// Add Stack Pane to middle of bpMain
 		bpMain.setPadding(new Insets(4,18,4,18));	// Place a white border around bpMain inside the Scene window
 
@@ -213,11 +287,73 @@ public class TwentyFortyEight extends Application
 		primaryStage.setResizable(false);					// Do not allow window to be resized
 		primaryStage.setScene(scMain); 				// Place the scene in the stage
 		primaryStage.show(); 						// Display the stage
+		StartupReport.mark("window shown");
 		
-		gen_tile(); gen_tile();		// Generate 2 starting Tiles
+		// Resume the autosaved game if the last session did not end normally, otherwise generate 2 starting Tiles
+		AutoSaver.Recovered saved = AutoSaver.recover(history.capacity());
+		autosaver = new AutoSaver(this::current_game, saved.sequence);
+		if (saved.game != null && saved.game.size == size)	// A game of another size is not resumed on this board
+		{
+			apply_game(saved.game);
+		}
+		else
+		{
+			state.start();
+			GridEngine.unpack(size, engine.board, GridValues);
+			autosaver.snapshot();	// The journal needs a starting position to replay moves onto
+			metrics.gamesStarted.increment();
+		}
+		try
+		{
+			if (size == 4) replays = new ReplayArchive.Writer("replays");	// The archive only holds 4x4 games
+		}
+		catch (IOException e)	// The game is still playable, it just is not recorded
+			{ e.printStackTrace(); }
+		if (replays != null) recorder.begin(state.spawns.seed, board()[0], engine.score);
+		UpdateDisplay();
+		StartupReport.mark("game ready");
 		
 	}	
 
+	void first_frame()		// The board is up and playable: now do everything start() left until later
+	{
+		shown = true;
+		StartupReport.mark(StartupReport.FIRST_FRAME);
+		sounds.preload();	// Decode the sound effects in the background
+		CompletableFuture.runAsync(() ->
+		{
+			Instrumentation.warmUp();
+			metrics.startupSeconds = StartupReport.seconds(StartupReport.FIRST_FRAME);
+			if (StartupReport.PRINT) System.err.print(StartupReport.report());
+		});
+	}
+
+	int read_hscore()		// High score stored in HighScore.dat (0 if there is none); runs off the FX thread
+	{
+		try (BufferedReader loadhscore = new BufferedReader(new FileReader("HighScore.dat")))
+		{
+			String gHScore = loadhscore.readLine().trim();		// Starts reading off of file
+			if (gHScore.equals(HSCORE_HEADER)) return Integer.parseInt(loadhscore.readLine().trim());
+			// Older files: one line holding the score plus 10,000
+			return Integer.parseInt(gHScore) - 10000;
+		}
+		catch (IOException | RuntimeException e)	// No file, or not a number in it
+		{
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	Font fancy_font(double points)	// BLKCHCRY.TTF: read from the file by the first dialog that needs it, then made in any size by name
+	{
+		if (fancyFamily == null)
+		{
+			Font loaded = Font.loadFont("file:BLKCHCRY.ttf", points);
+			fancyFamily = (loaded == null) ? Font.getDefault().getFamily() : loaded.getFamily();	// No file: the default font
+		}
+		return Font.font(fancyFamily, points);
+	}
+
 	public TwentyFortyEight()	// ***** MAIN PROGRAM LOOP *****
 	{
 		// Handles Keyboard Key Presses
@@ -225,35 +361,49 @@ public class TwentyFortyEight extends Application
 		{	@Override
 	        public void handle(KeyEvent event) 	// *** KEYPRESS HANDLING ***
 			{
+				if (replayReader != null && event.getCode() != KeyCode.R && event.getCode() != KeyCode.X) return;	// Only Alt+R/Alt+X during a replay
+				long start = Instrumentation.begin();
+				if (keyPressed == 0) keyPressed = start;
 				switch (event.getCode())
 				{
             	case UP:
-                	z=MoveUcheck();
-            		if (z==true) {StoreBoard(); MoveU(); gen_tile(); UpdateDisplay(); }	// Should be self-explanatory for move functions
+            		QueueMove(GameEngine.UP);		// Should be self-explanatory for move functions
             		break;
                 case DOWN:
-                	z=MoveDcheck();
-            		if (z==true) {StoreBoard(); MoveD(); gen_tile(); UpdateDisplay(); }
+                	QueueMove(GameEngine.DOWN);
                 	break;
                 case LEFT:  
-                	z=MoveLcheck();
-            		if (z==true) {StoreBoard(); MoveL(); gen_tile(); UpdateDisplay(); }
+                	QueueMove(GameEngine.LEFT);
                 	break;
                 case RIGHT: 
-                	z=MoveRcheck();
-            		if (z==true) {StoreBoard(); MoveR(); gen_tile(); UpdateDisplay(); }
+                	QueueMove(GameEngine.RIGHT);
                 	break;
+				case A: 
+					if (event.isAltDown()) toggle_autoplay();	// Lets the computer play (Alt+A again to stop)
+					break;
 				case H: 
 					if (event.isAltDown()) display_help();	// Help
 					break;
+				case I: 
+					if (event.isAltDown()) show_hint();		// Shows the move the computer would make
+					break;
 				case L: 
 					if (event.isAltDown()) load_game();		// Loads 2048.dat
 					break;
+				case M: 
+					if (event.isAltDown()) sounds.toggleMute();	// Sound on/off
+					break;
+				case P: 
+					if (event.isAltDown()) toggle_overlay();	// Performance overlay on/off
+					break;
+				case R: 
+					if (event.isAltDown()) toggle_replay();	// Replays the last recorded game (Alt+R again to stop)
+					break;
 				case S: 
 					if (event.isAltDown()) save_game();		// Saves to 2048.dat
 					break;
 				case T: 
-					if (event.isControlDown()) GridValues[0][0][0]=2048;// A test case for checking win window. (Ctrl+T)
+					if (event.isControlDown()) { GridValues[0][0]=2048; sync(); }// A test case for checking win window. (Ctrl+T)
 					break;
 				case X: 
 					if (event.isAltDown()) displayHScore();	// Exits the game, checking for new high score before doing so
@@ -264,483 +414,252 @@ public class TwentyFortyEight extends Application
 				default:
 					break;
 	            }
-        		WinLoseCheck();	// After an event, it checks to see if the player won or lost.
+        		if (event.getCode().isArrowKey() == false) WinLoseCheck();	// After an event, it checks to see if the player won or lost (moves: after their batch)
+        		Instrumentation.end(Instrumentation.Probe.INPUT, start);
 			}
 		});
 	}
 
-	boolean MoveUcheck()
+	void QueueMove(int dir)	// Queues a move for the next pulse (the input policy may merge or drop it)
+	{
+		inputs.offer(dir);
+		inputPump.start();
+	}
+
+	void FlushMoves()		// Plays every queued move through the engine, then redraws once; only the last move slides
+	{
+		if (inputs.isEmpty()) return;
+		long allocated = Instrumentation.allocated();
+		int played = 0;
+		for (int dir = inputs.poll(); dir >= 0; dir = inputs.poll())
+		{
+			if (engine.canMove(dir) == false) continue;
+			if (played > 0) DiscardEffects();	// The previous move is never shown on its own
+			System.arraycopy(engine.board, 0, lastStep, 0, lastStep.length);
+			StepMove(dir);
+			played++;
+		}
+		if (played == 0) return;
+		if (played > 1)			// Jump straight to the board the last move starts from
+		{
+			if (animator.running) animator.finish(false);
+			boardView.show(lastStep);
+		}
+		UpdateDisplay();
+		long perMove = (Instrumentation.allocated() - allocated) / played;
+		for (int n = 0; n < played; n++) Instrumentation.ALLOCATION.record(perMove);
+	}
+
+	void PlayMove(int dir)	// Makes one move in the given direction if it is valid and redraws
+	{
+		long allocated = Instrumentation.allocated();
+		if (StepMove(dir))
+		{
+			UpdateDisplay();
+			Instrumentation.ALLOCATION.record(Instrumentation.allocated() - allocated);
+		}
+	}
+
+	boolean StepMove(int dir)	// Makes one move if it is valid: back up, move, add a tile, record it. The display is left as it was
 	{
-		// Checks to see if 'Up' is a valid move
-		z = false;
-		for(col = 0; col <= 3; col++)			// Inspect all columns from left to right
+		lbHint.setText("");		// Any old hint is for the previous board
+		boolean moved = false;
+		switch (dir)
 		{
-			for(row = 0; row <= 2; row++)		// Inspect each row from top down
+		case GameEngine.UP:
+			moved=MoveUcheck();
+			if (moved==true) {StoreBoard(); MoveU(); gen_tile(); }
+			break;
+		case GameEngine.DOWN:
+			moved=MoveDcheck();
+			if (moved==true) {StoreBoard(); MoveD(); gen_tile(); }
+			break;
+		case GameEngine.LEFT:
+			moved=MoveLcheck();
+			if (moved==true) {StoreBoard(); MoveL(); gen_tile(); }
+			break;
+		case GameEngine.RIGHT:
+			moved=MoveRcheck();
+			if (moved==true) {StoreBoard(); MoveR(); gen_tile(); }
+			break;
+		default:
+			break;
+		}
+		if (moved==true)
+		{
+			autosaver.recordMove(board(), engine.score, engine.moves, state.xplay);
+			if (replays != null) recorder.move(dir, engine.lastSpawn, GameEngine.exponent(GridValues[engine.lastSpawn % size][engine.lastSpawn / size]));
+			metrics.moves.increment();
+		}
+		return moved;
+	}
+
+	void DiscardEffects()	// Forgets the slide and pop of a move that will not be drawn
+	{
+		for (int col = 0; col < size; col++)
+		{
+			for (int row = 0; row < size; row++)
 			{
-				for(i = row+1; i <= 3; i++)		// Inspect each row below the current selected row
-				{
-					// Is there a tile with a value > 0 that can move up into a tile with a value of zero
-					z = z || ((GridValues[0][col][row] == 0) && (GridValues[0][col][i] > 0));	
-				}
-				// Is there a tile that can be combined to the neighboring tile
-				// (a neighboring tile of zero permits a move in the statement above)
-			z = z || ((GridValues[0][col][row+1] == GridValues[0][col][row]) && (GridValues[0][col][row] > 0));
+				sfx[col][row] = 0;
 			}
 		}
-		if (z==true) return true;
-		return false;
+		engine.deltaCount = 0;
+	}
+
+	boolean MoveUcheck()
+	{
+		// Checks to see if 'Up' is a valid move (one bit of the summary the engine keeps for its board)
+		return engine.canMove(GameEngine.UP);
 	}
 	
 	boolean MoveDcheck()
 	{
 		// Checks to see if 'Down' is a valid move
-		z = false;
-		for(col = 0; col <= 3; col++)			// Inspect all columns from left to right
-		{
-			for(row = 3; row >= 1; row--)		// Inspect each row from bottom up
-			{
-				for(i = row-1; i >= 0; i--)		// Inspect each row above the current selected row
-				{
-					// Is there a tile with a value > 0 that can move down into a tile with a value of zero
-					z = z || ((GridValues[0][col][row] == 0) && (GridValues[0][col][i] > 0));	
-				}
-				// Is there a tile that can be combined to the neighboring tile
-				// (a neighboring tile of zero permits a move in the statement above)
-			z = z || ((GridValues[0][col][row] == GridValues[0][col][row-1]) && (GridValues[0][col][row-1] > 0));
-			}
-		}
-		if (z==true) return true;
-		return false;
+		return engine.canMove(GameEngine.DOWN);
 	}
 
 	boolean MoveLcheck()
 	{
 		// Checks to see if 'Left' is a valid move
-		z = false;
-		for(row = 0; row <= 3; row++)			// Inspect all rows from top to bottom
-		{
-			for(col = 0; col <= 2; col++)		// Inspect each column from left to right
-			{
-				for(i = col+1; i <= 3; i++)		// Inspect each column to the right of the current selected column
-				{
-					// Is there a tile with a value > 0 that can move left into a tile with a value of zero
-					z = z || ((GridValues[0][col][row] == 0) && (GridValues[0][i][row] > 0));	
-				}
-				// Is there a tile that can be combined to the neighboring tile
-				// (a neighboring tile of zero permits a move in the statement above)
-			z = z || ((GridValues[0][col+1][row] == GridValues[0][col][row]) && (GridValues[0][col][row] > 0));
-			}
-		}
-		if (z==true) return true;
-		return false;
+		return engine.canMove(GameEngine.LEFT);
 	}
 	
 	boolean MoveRcheck()
 	{
 		// Checks to see if 'Right' is a valid move
-		z = false;
-		for(row = 0; row <= 3; row++)			// Inspect all rows from top to bottom
-		{
-			for(col = 3; col >= 1; col--)		// Inspect each column from right to left
-			{
-				for(i = col-1; i >= 0; i--)		// Inspect each column to the left of the current selected column
-				{
-					// Is there a tile with a value > 0 that can move right into a tile with a value of zero
-					z = z || ((GridValues[0][col][row] == 0) && (GridValues[0][i][row] > 0));	
-				}
-				// Is there a tile that can be combined to the neighboring tile
-				// (a neighboring tile of zero permits a move in the statement above)
-			z = z || ((GridValues[0][col][row] == GridValues[0][col-1][row]) && (GridValues[0][col-1][row] > 0));
-			}
-		}
-		if (z==true) return true;
-		return false;
+		return engine.canMove(GameEngine.RIGHT);
 	}
 	
+	long[] board()			// The engine's board, which GridValues mirrors (the engine's own array: use it before the next move)
+	{
+		return engine.board;
+	}
+
+	void sync()				// After GridValues is changed directly: packs it into the engine and refreshes the engine's summary
+	{
+		GridEngine.pack(size, GridValues, engine.board);
+		engine.summarize();
+	}
+
 	void StoreBoard()
 	{
-		for (i = 9; i >=0; i--)
-		{
-			for(col = 0; col <= 3; col++)
-			{		
-				for(row = 0; row <= 3; row++)
-				{
-					// For every grid and grid value associated with that grid, they're backed up by one position. 
-					// 'Instances' are stored in a 3rd array dimension
-					GridValues[i+1][col][row] = GridValues[i][col][row]; 
-				}
-			}
-			score[i+1] = score[i]; // Also stores the previous scores with an array
-		}
+		// Backs up the current board, score and move count before a move (the same steps as GameState.move())
+		state.backUp();
 	}
 
 	void MoveU()
 	{
-		// Was able to reuse my old console code
-		// Shifts values in the 'Up' direction and checks to make sure all cases of combining or moving are capable of being executed
-		for (col=0; col <= 3; col++)	
-		{	
-			if((GridValues[0][col][0]+GridValues[0][col][1]+GridValues[0][col][2]+GridValues[0][col][3]) != 0)
-			{
-				while(GridValues[0][col][0] == 0)
-				{
-					GridValues[0][col][0] = GridValues[0][col][1];
-					GridValues[0][col][1] = GridValues[0][col][2];
-					GridValues[0][col][2] = GridValues[0][col][3];
-					GridValues[0][col][3] = 0;
-					
-				}
-				while((GridValues[0][col][1] == 0) && ((GridValues[0][col][2] + GridValues[0][col][3]) != 0))
-				{
-					GridValues[0][col][1] = GridValues[0][col][2];
-					GridValues[0][col][2] = GridValues[0][col][3];
-					GridValues[0][col][3] = 0;
-					
-				}
-				if((GridValues[0][col][2] == 0) && (GridValues[0][col][3] != 0))
-				{
-					GridValues[0][col][2] = GridValues[0][col][3];
-					GridValues[0][col][3] = 0;
-					
-				}
-			
-	
-				// If statement for if two compared array values are the same. Then combine and move values.
-				if(GridValues[0][col][0] == GridValues[0][col][1])
-				{
-					GridValues[0][col][0] += GridValues[0][col][1];
-					score[0] = score[0] + GridValues[0][col][0];
-					GridValues[0][col][1] = GridValues[0][col][2];
-					GridValues[0][col][2] = GridValues[0][col][3];
-					GridValues[0][col][3] = 0;
-					if (GridValues[0][col][0] != 0) sfx[col][0]=2;
-					
-					
-					if(GridValues[0][col][1] == GridValues[0][col][2])
-					{
-						GridValues[0][col][1] += GridValues[0][col][2];
-						score[0] = score[0] + GridValues[0][col][1];
-						GridValues[0][col][2] = 0;
-						if (GridValues[0][col][1] != 0) sfx[col][1]=2;
-						
-					}
-				}
-				if(GridValues[0][col][1] == GridValues[0][col][2])
-				{
-					GridValues[0][col][1] += GridValues[0][col][2];
-					score[0] = score[0] + GridValues[0][col][1];
-					GridValues[0][col][2] = GridValues[0][col][3];
-					GridValues[0][col][3] = 0;
-					if (GridValues[0][col][1] != 0) sfx[col][1]=2;
-				}
-				if(GridValues[0][col][2] == GridValues[0][col][3])
-				{
-					GridValues[0][col][2] += GridValues[0][col][3];
-					score[0] = score[0] + GridValues[0][col][2];
-					GridValues[0][col][3] = 0;
-					if (GridValues[0][col][2] != 0) sfx[col][2]=2;
-				}
-			}
-		}
-		moves++;
+		// Shifts values in the 'Up' direction (slide and combine rules live in GameEngine)
+		EngineMove(GameEngine.UP);
 	}
 	
 	void MoveD()
 	{
-		// Was able to reuse my old console code
-		// Shifts values in the 'Down' direction and checks to make sure all cases of combining or moving are capable of being executed
-		for (col=0; col <= 3; col++)	
-		{	
-			if((GridValues[0][col][0]+GridValues[0][col][1]+GridValues[0][col][2]+GridValues[0][col][3]) != 0)
-			{
-				while(GridValues[0][col][3] == 0)
-				{
-					GridValues[0][col][3] = GridValues[0][col][2];
-					GridValues[0][col][2] = GridValues[0][col][1];
-					GridValues[0][col][1] = GridValues[0][col][0];
-					GridValues[0][col][0] = 0;
-				}
-				while((GridValues[0][col][2] == 0) && ((GridValues[0][col][1] + GridValues[0][col][0]) != 0))
-				{
-					GridValues[0][col][2] = GridValues[0][col][1];
-					GridValues[0][col][1] = GridValues[0][col][0];
-					GridValues[0][col][0] = 0;
-				}
-				if((GridValues[0][col][1] == 0) && (GridValues[0][col][0] != 0))
-				{
-					GridValues[0][col][1] = GridValues[0][col][0];
-					GridValues[0][col][0] = 0;
-				}
-			
-			
-				// If statement for if two compared array values are the same. Then combine and move values.
-				if(GridValues[0][col][3] == GridValues[0][col][2])
-				{
-					GridValues[0][col][3] += GridValues[0][col][2];
-					score[0] = score[0] + GridValues[0][col][3];
-					GridValues[0][col][2] = GridValues[0][col][1];
-					GridValues[0][col][1] = GridValues[0][col][0];
-					GridValues[0][col][0] = 0;
-					if (GridValues[0][col][3] != 0) sfx[col][3]=2;
-				
-					if(GridValues[0][col][2] == GridValues[0][col][1])
-					{
-						GridValues[0][col][2] += GridValues[0][col][1];
-						score[0] = score[0] + GridValues[0][col][2];
-						GridValues[0][col][1] = 0;
-						if (GridValues[0][col][2] != 0) sfx[col][2]=2;
-					}
-				}
-				if(GridValues[0][col][2] == GridValues[0][col][1])
-				{
-					GridValues[0][col][2] += GridValues[0][col][1];
-					score[0] = score[0] + GridValues[0][col][2];
-					GridValues[0][col][1] = GridValues[0][col][0];
-					GridValues[0][col][0] = 0;
-					if (GridValues[0][col][2] != 0) sfx[col][2]=2;
-				}
-				if(GridValues[0][col][1] == GridValues[0][col][0])
-				{
-					GridValues[0][col][1] += GridValues[0][col][0];
-					score[0] = score[0] + GridValues[0][col][1];
-					GridValues[0][col][0] = 0;
-					if (GridValues[0][col][1] != 0) sfx[col][1]=2;
-				}
-			}
-		}
-		moves++;
+		// Shifts values in the 'Down' direction
+		EngineMove(GameEngine.DOWN);
 	}
 
 	void MoveL()
 	{
-		// Was able to reuse my old console code
-		// Shifts values in the 'Left' direction and checks to make sure all cases of combining or moving are capable of being executed
-		for (row=0; row <= 3; row++)	
-		{	
-			if((GridValues[0][0][row]+GridValues[0][1][row]+GridValues[0][2][row]+GridValues[0][3][row]) != 0)
-			{
-				while(GridValues[0][0][row] == 0)
-				{
-					GridValues[0][0][row] = GridValues[0][1][row];
-					GridValues[0][1][row] = GridValues[0][2][row];
-					GridValues[0][2][row] = GridValues[0][3][row];
-					GridValues[0][3][row] = 0;
-					
-				}
-				while((GridValues[0][1][row] == 0) && (GridValues[0][2][row] + GridValues[0][3][row]) != 0)
-				{
-					GridValues[0][1][row] = GridValues[0][2][row];
-					GridValues[0][2][row] = GridValues[0][3][row];
-					GridValues[0][3][row] = 0;
-					
-				}
-				if((GridValues[0][2][row]) == 0 && GridValues[0][3][row] != 0)
-				{
-					GridValues[0][2][row] = GridValues[0][3][row];
-					GridValues[0][3][row] = 0;
-					
-				}
-			
-		
-				// If statement for if two compared array values are the same. Then combine and move values.
-				if(GridValues[0][0][row] == GridValues[0][1][row])
-				{
-					GridValues[0][0][row] += GridValues[0][1][row];
-					score[0] = score[0] + GridValues[0][0][row];
-					GridValues[0][1][row] = GridValues[0][2][row];
-					GridValues[0][2][row] = GridValues[0][3][row];
-					GridValues[0][3][row] = 0;
-					if (GridValues[0][0][row] != 0) sfx[0][row]=2;
-					
-					if(GridValues[0][1][row] == GridValues[0][2][row])
-					{
-						GridValues[0][1][row] += GridValues[0][2][row];
-						score[0] = score[0] + GridValues[0][1][row];
-						GridValues[0][2][row] = 0;
-						if (GridValues[0][1][row] != 0) sfx[1][row]=2;
-					}
-				}
-				if(GridValues[0][1][row] == GridValues[0][2][row])
-				{
-					GridValues[0][1][row] += GridValues[0][2][row];
-					score[0] = score[0] + GridValues[0][1][row];
-					GridValues[0][2][row] = GridValues[0][3][row];
-					GridValues[0][3][row] = 0;
-					if (GridValues[0][1][row] != 0) sfx[1][row]=2;
-				}
-				if(GridValues[0][2][row] == GridValues[0][3][row])
-				{
-					GridValues[0][2][row] += GridValues[0][3][row];
-					score[0] = score[0] + GridValues[0][2][row];
-					GridValues[0][3][row] = 0;
-					if (GridValues[0][2][row] != 0) sfx[2][row]=2;
-				}
-			}
-		}
-		moves++;
+		// Shifts values in the 'Left' direction
+		EngineMove(GameEngine.LEFT);
 	}
 	
 	void MoveR()
 	{
-		// Was able to reuse my old console code
-		// Shifts values in the 'Right' direction and checks to make sure all cases of combining or moving are capable of being executed
-		for (row=0; row <= 3; row++)	
+		// Shifts values in the 'Right' direction
+		EngineMove(GameEngine.RIGHT);
+	}
+
+	void EngineMove(int dir)
+	{
+		// Moves the engine's board (which GridValues mirrors), then copies the result back for the display
+		long start = Instrumentation.begin();
+		if (engine.move(dir))
 		{
-			if((GridValues[0][0][row]+GridValues[0][1][row]+GridValues[0][2][row]+GridValues[0][3][row]) != 0)
+			GridEngine.unpack(size, engine.board, GridValues);
+			for (int col = 0; col < size; col++)
 			{
-				while(GridValues[0][3][row] == 0)
-				{
-					GridValues[0][3][row] = GridValues[0][2][row];
-					GridValues[0][2][row] = GridValues[0][1][row];
-					GridValues[0][1][row] = GridValues[0][0][row];
-					GridValues[0][0][row] = 0;
-				}
-				while((GridValues[0][2][row] == 0) && ((GridValues[0][1][row] + GridValues[0][0][row]) != 0))
-				{
-					GridValues[0][2][row] = GridValues[0][1][row];
-					GridValues[0][1][row] = GridValues[0][0][row];
-					GridValues[0][0][row] = 0;
-					
-				}
-				if((GridValues[0][1][row]) == 0 && (GridValues[0][0][row] != 0))
-				{
-					GridValues[0][1][row] = GridValues[0][0][row];
-					GridValues[0][0][row] = 0;
-					
-				}
-			
-			
-				// If statement for if two compared array values are the same. Then combine and move values.
-				if(GridValues[0][3][row] == GridValues[0][2][row])
-				{
-					GridValues[0][3][row] += GridValues[0][2][row];
-					score[0] = score[0] + GridValues[0][3][row];
-					GridValues[0][2][row] = GridValues[0][1][row];
-					GridValues[0][1][row] = GridValues[0][0][row];
-					GridValues[0][0][row] = 0;
-					if (GridValues[0][3][row] != 0) sfx[3][row]=2;
-					
-					if(GridValues[0][2][row] == GridValues[0][1][row])
-					{
-						GridValues[0][2][row] += GridValues[0][1][row];
-						score[0] = score[0] + GridValues[0][2][row];
-						GridValues[0][1][row] = 0;
-						if (GridValues[0][2][row] != 0) sfx[2][row]=2;
-					}
-				}
-				if(GridValues[0][2][row] == GridValues[0][1][row])
+				for (int row = 0; row < size; row++)
 				{
-					GridValues[0][2][row] += GridValues[0][1][row];
-					score[0] = score[0] + GridValues[0][2][row];
-					GridValues[0][1][row] = GridValues[0][0][row];
-					GridValues[0][0][row] = 0;
-					if (GridValues[0][2][row] != 0) sfx[2][row]=2;
-				}
-				if(GridValues[0][1][row] == GridValues[0][0][row])
-				{
-					GridValues[0][1][row] += GridValues[0][0][row];
-					score[0] = score[0] + GridValues[0][1][row];
-					GridValues[0][0][row] = 0;
-					if (GridValues[0][1][row] != 0) sfx[1][row]=2;
+					if ((engine.lastMerged & (1L << (row * size + col))) != 0) sfx[col][row] = 2;	// Tile combined
 				}
 			}
 		}
-		moves++;
+		Instrumentation.end(Instrumentation.Probe.MOVE, start);
 	}
 	
-	void UpdateDisplay()	// Displays the window for the help button (include instructions and button combos)
+	void UpdateDisplay()	// Brings the retained BoardView up to the engine's board, then the score, move and high score labels
 	{
-		// First updates the High Score if necessary, and then saves to file.
-		if (score[0] > hiscore)
+		long start = Instrumentation.begin();
+		// First raises the High Score if this game has passed it (it is saved to file when the game ends).
+		if (engine.score > hiscore)
 		{
-		hiscore = score[0];
+		hiscore = engine.score;
 		}
 		
-		// Remove and Add rectangles to the grdBase depending on what values exist in GridValues.
-		grdBase.getChildren().clear();
-		for(col=0; col<=3; col++)
+		// After a move, animate the tiles sliding and popping; otherwise (undo, load) restyle the changed tiles straight away
+		long pops = 0;
+		for(int col=0; col<size; col++)
 		{
-			for(row=0; row<=3; row++)
+			for(int row=0; row<size; row++)
 			{
-				grdBase = Tile.UpdateTile(grdBase, col, row, GridValues[0][col][row], sfx[col][row]);
+				if (sfx[col][row] != 0) pops |= 1L << (row * size + col);	// New and combined tiles pop
 				sfx[col][row] = 0;
 			}
 		}
+		if (engine.deltaCount > 0)
+		{
+			animator.animate(engine.deltas, engine.deltaCount, board(), pops);
+			engine.deltaCount = 0;
+		}
+		else
+		{
+			if (animator.running) animator.finish(false);
+			boardView.show(board());
+		}
 		
-		HBox hBox = new HBox(64);								// Display box added to bpInner with items spaced 64 pixels apart
-		bpInner.setRight(hBox);									// Right justify the horizontal box
-		Label lbHScore = new Label("High Score: \n" + hiscore);	// Display the score
-		lbHScore.setStyle("-fx-border-color: rgb(187,173,160); -fx-border-radius: 5,5,5,5;"
-				+ " -fx-background-color: rgb(187,173,160); -fx-background-radius: 5,5,5,5;");
-		Label lbScore = new Label("Score:      \n" + score[0]);	// Display the score
-		lbScore.setStyle("-fx-border-color: rgb(187,173,160); -fx-border-radius: 5,5,5,5;"
-				+ " -fx-background-color: rgb(187,173,160); -fx-background-radius: 5,5,5,5;");
-		Label lbMoves = new Label("Move Count: \n" + moves);		// Display the number of moves
-		lbMoves.setStyle("-fx-border-color: rgb(187,173,160); -fx-border-radius: 5,5,5,5;"
-				+ " -fx-background-color: rgb(187,173,160); -fx-background-radius: 5,5,5,5;");
-		hBox.getChildren().addAll(lbHScore, lbScore, lbMoves);
-
+		lbHScore.setText("High Score: \n" + hiscore);
+		lbScore.setText("Score:      \n" + engine.score);
+		lbMoves.setText("Move Count: \n" + engine.moves);
+		Instrumentation.end(Instrumentation.Probe.DISPLAY, start);
 	}
 
 	void WinLoseCheck()
 	{
+		long start = Instrumentation.begin();
 		
 	// Lose = No tiles with a zero, and no available move.
-	// Win = At least 1 tile contains the value 2048.
-		
-		boolean gridfull = true; 
-		boolean winner = false;
-		
-		for (col=0; col<=3; col++)
-		{
-			for (row=0; row<=3; row++)
-			{
-				if (GridValues[0][col][row] == 2048)	// Check to see if the player won
-				{
-					winner = true;
-				}
-				if (GridValues[0][col][row] == 0)		// Check to see if the grid is NOT full yet
-				{
-					gridfull = false;
-				}
-			}
-		}
+	// Win = At least 1 tile contains the value 2048 (512 on the 3x3 board).
 		
-		if (gridfull == true)	// Check to see if any of the tiles can be combined if the grid is full
+		// Both come from the summary the engine keeps up to date on every move.  The win flag is only raised by the
+		// move that makes the winning tile, so the window opens once rather than after every key press that follows.
+		boolean winner = state.takeWin();	// Only while the player has not yet chosen to keep going
+		boolean gridfull = engine.isGameOver();
+
+		// Display Win Window
+		if (winner == true)
 		{
-			for (col=0; col<=3; col++)
-			{
-				for (row=0; row<=2; row++)
-				{
-					if (GridValues[0][col][row]==GridValues[0][col][row+1])
-					{
-						gridfull = false;
-					}
-				}
-			}
-			for (row=0; row<=3; row++)
-			{
-				for (col=0; col<=2; col++)
-				{
-					if (GridValues[0][col][row]==GridValues[0][col+1][row])
-					{
-						gridfull = false;
-					}
-				}
-			}
-		
+			// Plays 'tada' sound
+			sounds.play(SoundBank.Sound.WIN);
+			if (winStage == null) winStage = win_window();
+			winStage.show();
 		}
 
-		// Display Win Window
-		if ((winner == true) && (xplay == 0))
+		// Display 'game over' window after playing a sound. One of my own, and a little louder than 'tada'.
+		if (gridfull == true)
 		{
+			sounds.play(SoundBank.Sound.GAME_OVER);
+
+			displayHScore();
+		}	
+		Instrumentation.end(Instrumentation.Probe.WIN_LOSE, start);
+	}
+
+	Stage win_window()		// Builds the window congratulating the player (once: WinLoseCheck shows the same one again)
+	{
 			Stage winStage = new Stage(StageStyle.UNDECORATED);
 			winStage.setResizable(false);
-			
-			// Plays 'tada' sound
-			Media tada = new Media(new File("tada.wav").toURI().toString());
-			MediaPlayer mediaPlayer = new MediaPlayer(tada);
-			mediaPlayer.play();
 				
 			StackPane winPane = new StackPane();
 			winPane.setPrefSize(600,350);
@@ -749,11 +668,11 @@ public class TwentyFortyEight extends Application
 			
 			// Creates a rather nice-looking window congratulating the player
 			Label gCont1 = new Label("!! CONGRATULATIONS !!\n!!! You Won !!!"); 
-			gCont1.setFont(Font.loadFont("file:BLKCHCRY.ttf", 36));
+			gCont1.setFont(fancy_font(36));
 			gCont1.setTextAlignment(TextAlignment.CENTER);
 			StackPane.setAlignment(gCont1, Pos.TOP_CENTER);
 			Label gCont2 = new Label("\n\nWould you like to Continue?\n(You can play until the board is full)"); 
-			gCont2.setFont(Font.loadFont("file:BLKCHCRY.ttf", 24));
+			gCont2.setFont(fancy_font(24));
 			gCont2.setTextAlignment(TextAlignment.CENTER);
 			StackPane.setAlignment(gCont2, Pos.CENTER);
 			
@@ -764,7 +683,8 @@ public class TwentyFortyEight extends Application
 			{
 		    	@Override public void handle(ActionEvent event) 
 		    	{
-		    		xplay = 1;
+		    		state.xplay = 1;
+		    		autosaver.snapshot();
 		    		winStage.close();
 		    		return;
 		    	}
@@ -790,220 +710,277 @@ public class TwentyFortyEight extends Application
 			
 			Scene winScene = new Scene(winPane);
 			winStage.setScene(winScene);	
-			winStage.show();
-		}
-
-		// Display 'game over' window after playing a sound. One of my own, and a little louder than 'tada'.
-		if (gridfull == true)
-		{
-			Media tada = new Media(new File("Layton.wav").toURI().toString());
-			MediaPlayer mediaPlayer = new MediaPlayer(tada);
-			mediaPlayer.play();
-
-			displayHScore();
-		}	
+			return winStage;
 	}
 
 	void gen_tile()			// Generates a random tile on the board (needs to be for every turn)
 	{	
-		boolean gotnum=false;
-		double gnum=0.0;
-		while(gotnum == false)
+		// The seeded generator picks the cell and value (2 at 89%, 4 at 11%) in one draw; this method only copies it back
+		long start = Instrumentation.begin();
+		if (state.spawn())
 		{
-			row = (int)(Math.random()*4);
-			col = (int)(Math.random()*4);
-			if(GridValues[0][col][row] == 0)
-			{
-				gnum = Math.random();
-				if(gnum < 0.89)		// Probability function for determining if 2 or 4 is generated
-					GridValues[0][col][row] = 2;
-				else
-					GridValues[0][col][row] = 4;
-				gotnum=true;
-				sfx[col][row] = 1;	// Sets special effect to "1" to indicate newly added tile
-				grdBase = Tile.UpdateTile(grdBase, col, row, GridValues[0][col][row], sfx[col][row]);
-			}
+			int col = engine.lastSpawn % size;
+			int row = engine.lastSpawn / size;
+			GridValues[col][row] = 1 << GridEngine.exponentAt(size, engine.board, col, row);
+			sfx[col][row] = 1;	// Sets special effect to "1" to indicate newly added tile (drawn by UpdateDisplay)
 		}
+		Instrumentation.end(Instrumentation.Probe.GEN_TILE, start);
 	}
 	
-	void undo_move()		// Undoes a move by taking off the "top pancake" and showing the next one underneath(works with backup_board)
+	void undo_move()		// Undoes a move by taking off the "top pancake" and showing the next one underneath(works with StoreBoard)
 	{
-		i=0;
-		for (col=0; col<=3; col++)
-		{
-			for (row=0; row<=3; row++)
-			{
-				i += GridValues[1][col][row];	// If all values are 0, then we know there are no more undo moves left
-			}
-		}
-		
-		if (i==0)	// No more moves to Undo
+		FlushMoves();			// Moves typed before the undo happen first
+		if (state.undo() == false)	// No more moves to Undo
 		{
 			// Plays a sound to signify no more undoes are available
-			Media nope = new Media(new File("BUZZ.wav").toURI().toString());
-			MediaPlayer mediaPlayer = new MediaPlayer(nope);
-			mediaPlayer.play();
+			sounds.play(SoundBank.Sound.NOPE);
 		}
-		
-		if (i>0)	// Move can be undone
+		else					// Move undone: the previous board, score and move count are back in the engine
 		{
-			for (i=1; i<=10; i++)
-			{
-				for (col=0; col<=3; col++)
-				{
-					for (row=0; row<=3; row++)
-					{
-						GridValues[i-1][col][row]=GridValues[i][col][row];	// Undoes moves by loading up previous values 
-					}
-				}
-				score[i-1] = score[i]; // Also stores the previous scores
-			}
-			for (col=0; col<=3; col++)
-			{
-				for (row=0; row<=3; row++)
-				{
-					GridValues[10][col][row]=0;		// Clears last grid values since move was undone
-				}
-			}
-			score[10]=0;							// Clears last grid score value
-			moves--;								// Decrements moves
+			GridEngine.unpack(size, engine.board, GridValues);
+			metrics.undos.increment();
+			autosaver.recordUndo(board(), engine.score, engine.moves, state.xplay);
+			restart_recording();	// The recording carries on from the undone position as a new game
 		}
 		UpdateDisplay();							// Updates display with new values and tiles
 	}
 	
 	void save_game() 		// Saves game to a file
 	{	
-		int x;
-		PrintWriter saver;
-		try
-		{
-			saver = new PrintWriter("2048.dat", "UTF-8");	// Creates new file or overwrites old file of same name
-			saver.println("Stored 2048 game:");
-			for (i=0; i<=10; i++)
-			{
-				for (row=0; row<=3; row++)	
-				{
-					for (col=0; col<=3; col++)
-					{
-						// Add 10,000 to each stored number as a formatting tool for ease of recovering the data in the load routine
-						x = 10000 + GridValues[i][col][row];
-						saver.print(x + ",");	// Types up all values of grid in lines of 16 values for each grid
-					}
-				}
-				// Add 10,000 to each stored number as a formatting tool for ease of recovering the data in the load routine
-				x = 10000 + score[i];	// Saves score
-				saver.println(x);
-			}
-			// Add 10,000 to each stored number as a formatting tool for ease of recovering the data in the load routine
-			x = 10000 + moves;			// Saves moves
-			saver.print(x + ",");
-			
-			x = 10000 + xplay;			// Saves the number which determines if the player is on extended play or regular play
-			saver.print(x);
-			
-			saver.close();				// Closes file and stops writing
-			
-		} catch (FileNotFoundException e)			// Auto-generated catch block
-		{
-			e.printStackTrace();
-		} catch (UnsupportedEncodingException e)	// Auto-generated catch block
-		{
-			e.printStackTrace();
-		}
+		FlushMoves();
+		// Binary save (see SaveFormat): current board, score, moves, extended play flag and the whole undo history.
+		// The autosave thread writes it to a temp file and renames it over 2048.dat, so the game does not wait on the disk.
+		autosaver.writeAtomically(Paths.get("2048.dat"), SaveFormat.encode(current_game()));
 
 		// Plays sound when done saving file
-		Media dataSaved = new Media(new File("Data_Acquire.wav").toURI().toString());
-		MediaPlayer mediaPlayer = new MediaPlayer(dataSaved);
-		mediaPlayer.play();
+		sounds.play(SoundBank.Sound.SAVED);
+		metrics.saves.increment();
+
+	}
 
+	SaveFormat.SavedGame current_game()	// Snapshot of the game for saving
+	{
+		return state.save();
 	}
 	
-	@SuppressWarnings("resource")
+	void apply_game(SaveFormat.SavedGame game)	// Replaces the current game with a saved one
+	{
+		state.load(game);
+		GridEngine.unpack(size, game.board, GridValues);
+	}
+
 	void load_game()  		// Loads game from previously saved file
 	{
-		// Requires try/catch statements for file existence, ability to input/output to file correctly, and scan information
-		int ln, cnt, str, stp, val;
-		BufferedReader loader;
+		// Reads both the binary format and the old "Stored 2048 game:" text files
+		inputs.clear();			// Moves queued for the old game do not apply to the loaded one
 		try
 		{
-			loader = new BufferedReader(new FileReader("2048.dat"));
-			String gData = null;
-			try
+			long start = Instrumentation.begin();
+			SaveFormat.SavedGame game = SaveFormat.read(Paths.get("2048.dat"));
+			Instrumentation.end(Instrumentation.Probe.FILE_IO, start);
+			if (game.size != size)	// The board on screen cannot change size
 			{
-				for (ln = 0; ln <= 12; ln++)
-				{
-					gData = loader.readLine();
-					// lines 0 the text file contains the title of the file
-					if (ln == 0 && (!(gData.substring(0, 17)).equals("Stored 2048 game:")))
-					{
-						return;	// REturns if the file exists, but is not the correct file or is corrupted
-					}
-					// lines 1 through 11 in the text file contains the data for the current move and the 10 previous moves (including score)
-					if (ln > 0 && ln < 12)	
-					{
-						cnt=-1;
-						for (row=0; row<=3; row++)	
-						{
-							for (col=0; col<=3; col++)
-							{
-								// Scans every 5 characters inbetween commas and then subtracts 10000 to get values for grid positions
-								cnt++; str = cnt*6; stp = str+5;
-								val = Integer.parseInt(gData.substring(str,stp));
-								// 10,000 was added to stored number as a formatting tool for ease of recovering the data here
-								GridValues[ln-1][col][row] = val - 10000;
-							}
-						}
-						cnt++; str = cnt*6; stp = str+5;
-						val = Integer.parseInt(gData.substring(str,stp));
-						// 10,000 was added to stored number as a formatting tool for ease of recovering the data here
-						score[ln-1] = val - 10000;
-					}
-					// lines 12 in the text file contains the data for the number of moves
-					if (ln == 12)
-					{
-						val = Integer.parseInt(gData.substring(0,5));
-						// 10,000 was added to stored number as a formatting tool for ease of recovering the data here
-						moves = val - 10000;
-						
-						val = Integer.parseInt(gData.substring(6,11));
-						// 10,000 was added to stored number as a formatting tool for ease of recovering the data here
-						xplay = val - 10000;
-
-						// Plays sound when file is successfully loaded
-						Media sndLoaded = new Media(new File("PRescue.wav").toURI().toString());
-						MediaPlayer mediaPlayer = new MediaPlayer(sndLoaded);
-						mediaPlayer.play();
+				System.err.println("2048.dat holds a " + game.size + "x" + game.size + " game; start with -Dboard.size=" + game.size + " to load it");
+				sounds.play(SoundBank.Sound.NOPE);
+				return;
+			}
+			apply_game(game);
+			autosaver.snapshot();	// The journal cannot describe a load, so start it over from here
+			restart_recording();
 
-						mediaPlayer.play();
-					}
-				}
-			} 
-			catch (IOException e)  // Auto-generated catch block in case there is no data to read (readline)
-				{ e.printStackTrace(); }
-			try
-			{
-				loader.close();
-				
-			} 
-			catch (IOException e) // Auto-generated catch block in case there is no data (BufferedReader)
-			{ e.printStackTrace(); }
+			// Plays sound when file is successfully loaded
+			sounds.play(SoundBank.Sound.LOADED);
+			metrics.loads.increment();
 		} 
-		catch (FileNotFoundException e) // Auto-generated catch block if there is no file found
+		catch (NoSuchFileException e) // Auto-generated catch block if there is no file found
 		{
 			// Plays a sound, because there's no save file
-			Media nope = new Media(new File("BUZZ.wav").toURI().toString());
-			MediaPlayer mediaPlayer = new MediaPlayer(nope);
-			mediaPlayer.play();
+			sounds.play(SoundBank.Sound.NOPE);
 			
 			e.printStackTrace();
 		}
+		catch (IOException e)  // Returns if the file exists, but is not the correct file or is corrupted
+		{
+			e.printStackTrace();
+			return;
+		}
 		
 		// Update display with loaded grid, score, move, and extended play values.
 		UpdateDisplay();
 		
 	}
 
+	void toggle_overlay()	// Shows or hides the performance overlay; its figures start over each time it is shown
+	{
+		if (lbPerf.isVisible())
+		{
+			perfTimer.stop();
+			lbPerf.setVisible(false);
+			return;
+		}
+		Instrumentation.reset();
+		lbPerf.setText("");
+		lbPerf.setVisible(true);
+		perfTimer.start();
+	}
+
+	void show_hint()		// Shows the move the expectimax search would make on the current board
+	{
+		String[] names = { "Up", "Down", "Left", "Right" };
+		if (size != 4)			// The search only knows the 4x4 board
+		{
+			sounds.play(SoundBank.Sound.NOPE);
+			return;
+		}
+		analysis.analyse(dir -> lbHint.setText(dir < 0 ? "No moves left" : "Hint: " + names[dir]));
+	}
+
+	Expectimax advisor()	// Only called on the analysis thread, so the 32 MB cache and the heuristic tables wait for the first hint
+	{
+		if (advisor == null) advisor = new Expectimax(3, new EvaluationCache(), ForkJoinPool.commonPool());
+		return advisor;
+	}
+
+	void restart_recording()	// Appends the game recorded so far to the archive and starts a new one from the current board
+	{
+		end_recording();
+		state.spawns = SpawnGenerator.random();	// The new record must be playable from its own seed
+		if (replays != null) recorder.begin(state.spawns.seed, board()[0], engine.score);
+	}
+
+	void end_recording()
+	{
+		if (replays == null) return;
+		try
+		{
+			recorder.end(replays, engine.score);
+		}
+		catch (IOException e)
+			{ e.printStackTrace(); }
+	}
+
+	void toggle_replay()	// Shows the last recorded game move by move on the board, or goes back to the current game
+	{
+		if (replayReader != null)
+		{
+			stop_replay();
+			return;
+		}
+		if (replays == null)	// Recording is off (or the board is not 4x4)
+		{
+			sounds.play(SoundBank.Sound.NOPE);
+			return;
+		}
+		FlushMoves();
+		if (autoplay) toggle_autoplay();
+		restart_recording();	// The game in progress becomes the last recorded game
+		try
+		{
+			replayReader = new ReplayArchive.Reader("replays");
+		}
+		catch (IOException e)	// Nothing has been recorded yet
+		{
+			sounds.play(SoundBank.Sound.NOPE);
+			return;
+		}
+		if (replayReader.games == 0)
+		{
+			stop_replay();
+			sounds.play(SoundBank.Sound.NOPE);
+			return;
+		}
+		replayGame = replayReader.game(replayReader.games - 1);
+		replayBoard = replayGame.startBoard;
+		replayStep = 0;
+		if (animator.running) animator.finish(false);
+		boardView.show(new long[] { replayBoard });
+		lbHint.setText("Replay: move 0/" + replayGame.moveCount);
+		replayDelay.setOnFinished(event -> replay_step());
+		replayDelay.playFromStart();
+	}
+
+	void replay_step()		// Slides the replay board one recorded move on; the last position stays up until Alt+R
+	{
+		if (replayReader == null || replayStep == replayGame.moveCount) return;
+		try
+		{
+			int move = replayReader.move(replayGame, replayStep++);
+			int count = GameEngine.moveDeltas(replayBoard, move & 3, engine.deltas);
+			replayBoard = ReplayArchive.applyMove(replayBoard, move);
+			animator.animate(engine.deltas, count, new long[] { replayBoard }, 1L << ((move >>> 2) & 0xF));
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			stop_replay();
+			return;
+		}
+		lbHint.setText("Replay: move " + replayStep + "/" + replayGame.moveCount);
+		replayDelay.playFromStart();
+	}
+
+	void stop_replay()
+	{
+		replayDelay.stop();
+		try
+		{
+			replayReader.close();
+		}
+		catch (IOException e)
+			{ e.printStackTrace(); }
+		replayReader = null;
+		lbHint.setText("");
+		UpdateDisplay();		// Back to the game in progress
+	}
+
+	void toggle_autoplay()	// Starts or stops the computer playing one move every autoDelay
+	{
+		if (size != 4 && autoplay == false)
+		{
+			sounds.play(SoundBank.Sound.NOPE);
+			return;
+		}
+		autoplay = !autoplay;
+		autoGeneration++;		// Any search still running belongs to the run before this one
+		if (autoplay)
+		{
+			autoDelay.setOnFinished(event -> auto_step());
+			autoDelay.playFromStart();
+		}
+		else
+		{
+			autoDelay.stop();
+		}
+	}
+
+	void auto_step()		// One auto-play move; stops at a win (so the player gets the win window) or when no move is left
+	{
+		if (autoplay == false) return;
+		int generation = autoGeneration;
+		analysis.analyse(dir ->
+		{
+			if (autoplay == false || generation != autoGeneration || replayReader != null) return;	// Stopped (or stopped and restarted) while the search ran
+			if (dir < 0)
+			{
+				autoplay = false;
+			}
+			else
+			{
+				PlayMove(dir);
+				if (state.xplay == 0 && engine.won) autoplay = false;
+			}
+			WinLoseCheck();
+			if (autoplay == true) autoDelay.playFromStart();
+		});
+	}
+
 	void display_help()		// Displays the window for the help button (include instructions)
+	{
+		if (helpStage == null) helpStage = help_window();
+		helpStage.show();
+	}
+
+	Stage help_window()		// Builds the help window the first time it is asked for
 	{
 		// Creates simple StackPane, stage, scene, label (with information), and close button
 		StackPane helpPane = new StackPane();
@@ -1027,8 +1004,11 @@ public class TwentyFortyEight extends Application
 								"The grid begins with 2 randomly generated tiles, each of\n" +
 								"a value 2 or 4.  On each turn 1 additional tile is \n" +
 								"randomly added to the grid.\n\n" +
-								"You can undo up to 10 moves!\n" +
-								"You win once a tile = 2048!\n\n" +
+								"You can undo up to " + (history.capacity() == UndoLog.UNLIMITED ? "any number of" : history.capacity()) + " moves!\n" +
+								"Alt+I shows a hint, Alt+A lets the computer play.\n" +
+								"Alt+M turns the sound on or off, Alt+R replays the last game.\n" +
+								"Alt+P shows how long each part of a move takes.\n" +
+								"You win once a tile = " + (1 << GridEngine.winExponent(size)) + "!\n\n" +
 								"                          Good luck! ^_^"); 
 		info.setFont(Font.font(null,20));	// Set the font of the help screen text
 
@@ -1050,50 +1030,44 @@ public class TwentyFortyEight extends Application
 		
 		helpPane.getChildren().addAll(info, btClose);
 		
-		helpStage.show();
+		return helpStage;
 
 	}
 
 	void displayHScore()		// Shows the game over screen after checking for highscore and displaying highscore screen 
 	{
 		
-	if (hiscore == score[0])	// If there is a new high score, then display it.
+	// The stored score must be known before it can be beaten or written over (the read is long done unless the game
+	// ends within moments of starting)
+	hiscore = Math.max(hiscore, storedHScore.join());
+	if (hiscore == engine.score)	// If there is a new high score, then display it.
 		{
 		
 		// Plays 'tada' sound when high score is achieved
-		Media tada = new Media(new File("tada.wav").toURI().toString());
-		MediaPlayer mediaPlayer = new MediaPlayer(tada);
-		mediaPlayer.play();
+		sounds.play(SoundBank.Sound.WIN);
 		
-		PrintWriter savehscore;
-		try
+		// Saves current score to highscore file (written by the autosave thread, replaced atomically): a header line,
+		// then the score as a plain number
+		String stored = HSCORE_HEADER + System.lineSeparator() + hiscore + System.lineSeparator();
+		autosaver.writeAtomically(Paths.get("HighScore.dat"), stored.getBytes(StandardCharsets.UTF_8));
+		
+			// Creates (the first time) and displays High Score for five seconds
+			if (hsStage == null)
 			{
-				// Saves current score to highscore file
-				savehscore = new PrintWriter("HighScore.dat", "UTF-8");
-				// Add 10,000 to the value as a formatting tool for ease of recovering the data when loaded
-				int x = (10000 + hiscore);
-				savehscore.println(x);
-				savehscore.close();
+				StackPane hsPane = new StackPane();
+				hsPane.setPrefSize(600,400);
+				hsPane.setStyle("-fx-border-color: black");
+				Scene hsScene = new Scene(hsPane);
+				hsStage = new Stage(StageStyle.UNDECORATED);
+				hsStage.setScene(hsScene);
+				hsLabel = new Label();
+				hsLabel.setFont(fancy_font(48));	// Imported one of my favorite fonts
+				hsLabel.setTextAlignment(TextAlignment.CENTER);
+				hsPane.getChildren().add(hsLabel);
 			}
-			catch (FileNotFoundException e)			// Auto-generated catch block
-				{ e.printStackTrace(); }
-			catch (UnsupportedEncodingException e)	// Auto-generated catch block
-				{ e.printStackTrace(); }
-		
-			// Creates and displays High Score for five seconds
-			StackPane hsPane = new StackPane();
-			hsPane.setPrefSize(600,400);
-			hsPane.setStyle("-fx-border-color: black");
-			Scene hsScene = new Scene(hsPane);
-			Stage hsStage = new Stage(StageStyle.UNDECORATED);
-			hsStage.setScene(hsScene);
+			hsLabel.setText("NEW HIGH SCORE: \n" + hiscore);
 			hsStage.show();
 		
-			Label hScore = new Label("NEW HIGH SCORE: \n" + hiscore); 
-			hScore.setFont(Font.loadFont("file:BLKCHCRY.ttf", 48));	// Imported one of my favorite fonts
-			hScore.setTextAlignment(TextAlignment.CENTER);
-			hsPane.getChildren().add(hScore);
-		
 			// Made the duration for 5 seconds before closing the high score window and calling the exit game method
 			PauseTransition delay5 = new PauseTransition(Duration.seconds(5));
 			delay5.setOnFinished( event -> {hsStage.close(); exit_game();});
@@ -1107,25 +1081,35 @@ public class TwentyFortyEight extends Application
 	
 	void exit_game()		// Shows the game over screen 
 	{
+		metrics.gameFinished(engine.score);
 		
-		// Creates and displays 'Game over'
-		StackPane endPane = new StackPane();
-		endPane.setPrefSize(300,200);
-		endPane.setStyle("-fx-border-color: black");
-		Scene endScene = new Scene(endPane);
-		Stage endStage = new Stage(StageStyle.UNDECORATED);
-		endStage.setScene(endScene);
-		endStage.show();
+		// Creates (the first time) and displays 'Game over'
+		if (endStage == null)
+		{
+			StackPane endPane = new StackPane();
+			endPane.setPrefSize(300,200);
+			endPane.setStyle("-fx-border-color: black");
+			Scene endScene = new Scene(endPane);
+			endStage = new Stage(StageStyle.UNDECORATED);
+			endStage.setScene(endScene);
 		
-		Label gOver = new Label("Game over!"); 
-		gOver.setFont(Font.loadFont("file:BLKCHCRY.ttf", 48));
-		endPane.getChildren().add(gOver);
-		StackPane.setAlignment(gOver,Pos.CENTER);
+			Label gOver = new Label("Game over!"); 
+			gOver.setFont(fancy_font(48));
+			endPane.getChildren().add(gOver);
+			StackPane.setAlignment(gOver,Pos.CENTER);
+		}
+		endStage.show();
 		
 		// Displays game over screen for 2 seconds before closing program
 		PauseTransition delay2 = new PauseTransition(Duration.seconds(2));
-		delay2.setOnFinished( event -> System.exit(0));
+		delay2.setOnFinished( event ->
+		{
+			end_recording();
+			autosaver.discard(); autosaver.close();	// Nothing to resume next time
+			metrics.close();						// Last dump, so the finished game is counted
+			System.exit(0);
+		});
 		delay2.play();
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+// Circular undo history of packed boards, with the score and move count that went with each one
+/* push() and pop() are O(1): nothing is copied, only the head index and the size counter move.  When the log is full
+ * the oldest entry is overwritten.  A capacity of 0 means unlimited undo: the arrays then double when full, which
+ * costs 16 bytes per stored 4x4 move.  Boards bigger than 4x4 take several words each (GridEngine.words()); the
+ * long versions of push() and board() are for one-word boards.
+ */
+
+final class UndoLog
+{
+	static final int UNLIMITED = 0;
+
+	private long[] boards;		// 'words' longs per slot
+	private int[] scores;
+	private int[] moves;
+	private final boolean growable;
+	private final int words;
+	private int slots;
+	private int head = 0;		// Slot the next push() writes to
+	private int size = 0;		// Number of entries that can be undone
+
+	UndoLog(int capacity)	// Keeps the last 'capacity' positions, or every position if capacity is UNLIMITED
+	{
+		this(capacity, 1);
+	}
+
+	UndoLog(int capacity, int words)	// Same, for boards of 'words' longs
+	{
+		growable = (capacity == UNLIMITED);
+		this.words = words;
+		slots = growable ? 64 : capacity;
+		boards = new long[slots * words];
+		scores = new int[slots];
+		moves = new int[slots];
+	}
+
+	void push(long board, int score, int moveCount)
+	{
+		int at = claim() * words;		// Before touching boards: claim() may replace it
+		boards[at] = board;
+		scores[head] = score;
+		moves[head] = moveCount;
+		head = (head + 1) % slots;
+		size++;
+	}
+
+	void push(long[] board, int score, int moveCount)
+	{
+		int at = claim() * words;
+		System.arraycopy(board, 0, boards, at, words);
+		scores[head] = score;
+		moves[head] = moveCount;
+		head = (head + 1) % slots;
+		size++;
+	}
+
+	private int claim()		// Makes room for one more entry and returns the slot it goes in
+	{
+		if (size == slots)
+		{
+			if (growable) grow();
+			else size--;			// Full: the oldest entry (at head) is about to be overwritten
+		}
+		return head;
+	}
+
+	boolean pop()			// Drops the newest entry (read it with board(0) etc. first). Returns false if there was none
+	{
+		if (size == 0) return false;
+		head = (head - 1 + slots) % slots;
+		size--;
+		return true;
+	}
+
+	// Entry 'back' positions behind the newest one (0 = the position just before the current board)
+	long board(int back)	{ return boards[slot(back) * words]; }
+	int score(int back)		{ return scores[slot(back)]; }
+	int moves(int back)		{ return moves[slot(back)]; }
+	void board(int back, long[] out)	{ System.arraycopy(boards, slot(back) * words, out, 0, words); }
+	int words()				{ return words; }
+
+	int size()				{ return size; }
+	boolean isEmpty()		{ return size == 0; }
+	int capacity()			{ return growable ? UNLIMITED : slots; }
+
+	void clear()
+	{
+		head = 0;
+		size = 0;
+	}
+
+	private int slot(int back)
+	{
+		if (back < 0 || back >= size) throw new IndexOutOfBoundsException("Undo entry " + back + " of " + size);
+		return (head - 1 - back + 2 * slots) % slots;
+	}
+
+	private void grow()		// Unlimited mode only: unrolls the ring into arrays twice the size
+	{
+		int length = slots;
+		long[] newBoards = new long[length * 2 * words];
+		int[] newScores = new int[length * 2];
+		int[] newMoves = new int[length * 2];
+		for (int n = 0; n < size; n++)	// Oldest first
+		{
+			int from = (head - size + n + length) % length;
+			System.arraycopy(boards, from * words, newBoards, n * words, words);
+			newScores[n] = scores[from];
+			newMoves[n] = moves[from];
+		}
+		boards = newBoards;
+		scores = newScores;
+		moves = newMoves;
+		slots = length * 2;
+		head = size;
+	}
+}